@@ -0,0 +1,380 @@
+import model.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Замеры горячих мест: шаг физики, столкновения с бортами, поиск пути и построение дерева.
+ * JMH не подходит - он не работает с классами из пакета по умолчанию, поэтому замер свой:
+ * прогрев, затем несколько измерений, в отчет идут среднее и минимум на одну операцию.
+ *
+ * mvn -Pbench compile
+ * java -cp target/classes Benchmarks [-replay файл тик] [имя бенчмарка ...]
+ *
+ * По умолчанию замеры идут на кольцевой трассе. С -replay - на тике игры, записанной Runner'ом (host port token файл)
+ */
+public class Benchmarks {
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURE_ITERATIONS = 10;
+
+    private static volatile double sink;
+
+    public static void main(String[] args) throws IOException {
+        Snapshot snapshot;
+        Set<String> names;
+        if (args.length >= 3 && "-replay".equals(args[0])) {
+            snapshot = Snapshot.replay(args[1], Integer.parseInt(args[2]));
+            names = new HashSet<>(Arrays.asList(args).subList(3, args.length));
+        } else {
+            snapshot = Snapshot.ring(12, 8);
+            names = new HashSet<>(Arrays.asList(args));
+        }
+
+        for (Benchmark benchmark : createBenchmarks(snapshot)) {
+            if (names.isEmpty() || names.contains(benchmark.name))
+                measure(benchmark);
+        }
+    }
+
+    private static List<Benchmark> createBenchmarks(final Snapshot snapshot) {
+        List<Benchmark> benchmarks = new ArrayList<>();
+
+        benchmarks.add(new Benchmark("carEngine.subStep", 1_000_000) {
+            private CarTracker.CarPathEngine engine;
+            private CarTracker.CState start;
+
+            @Override
+            void setUp() {
+                engine = snapshot.createCarEngine();
+                engine.setEnginePowerAim(1.0);
+                engine.setWheelTurnAim(0.5);
+                start = engine.getState().copy();
+            }
+
+            @Override
+            double run() {
+                CarTracker.CState state = engine.getState();
+                double result = 0;
+                for (int i = 0; i < ops; i++) {
+                    if (i % 1000 == 0)
+                        state.set(start);
+                    engine.subStep();
+                    result += state.x;
+                }
+                return result;
+            }
+        });
+
+        benchmarks.add(new PerStepBenchmark("worldEngine.perStep", snapshot, new Projectile[0], false));
+        benchmarks.add(new PerStepBenchmark("worldEngine.perStep.adaptive", snapshot, new Projectile[0], true));
+        benchmarks.add(new PerStepBenchmark("worldEngine.perStep.projectiles", snapshot, snapshot.createProjectiles(), false));
+        benchmarks.add(new PerStepBenchmark("worldEngine.perStep.far", snapshot, snapshot.createFarProjectiles(), false));
+        benchmarks.add(new PerStepBenchmark("worldEngine.perStep.adaptive.far", snapshot, snapshot.createFarProjectiles(), true));
+
+        benchmarks.add(new Benchmark("borders.collideBox", 1_000_000) {
+            private UnitState.CarState[] states;
+
+            @Override
+            void setUp() {
+                states = snapshot.createProbeStates(1024);
+            }
+
+            @Override
+            double run() {
+                Borders borders = snapshot.data.borders;
+                int result = 0;
+                for (int i = 0; i < ops; i++) {
+                    if (borders.collideBox(states[i & 1023], 0, 0, 0, false, null))
+                        result++;
+                }
+                return result;
+            }
+        });
+
+        benchmarks.add(new Benchmark("gameUtil.findPath", 100) {
+            @Override
+            double run() {
+                int result = 0;
+                for (int i = 0; i < ops; i++) {
+                    int[][] path = GameUtil.findPath(i % snapshot.waypoints.length, snapshot.data);
+                    result += path[0][0];
+                }
+                return result;
+            }
+        });
+
+        for (final int sCount : new int[] {5000, 20000}) {
+            benchmarks.add(new BuildBestPathBenchmark("driver.buildBestPath." + sCount, snapshot, sCount, false, false));
+            benchmarks.add(new BuildBestPathBenchmark("driver.buildBestPath.ucb." + sCount, snapshot, sCount, true, false));
+            benchmarks.add(new BuildBestPathBenchmark("driver.buildBestPath.frontier." + sCount, snapshot, sCount, false, true));
+        }
+
+        return benchmarks;
+    }
+
+    private static void measure(Benchmark benchmark) {
+        benchmark.setUp();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += benchmark.run();
+        }
+
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            sink += benchmark.run();
+            double nsPerOp = (1.0 * (System.nanoTime() - start)) / benchmark.ops;
+            sum += nsPerOp;
+            min = Math.min(min, nsPerOp);
+        }
+
+        System.out.println(String.format(Locale.US, "%-36s %14.1f ns/op (min %.1f)", benchmark.name, sum / MEASURE_ITERATIONS, min));
+    }
+
+    private abstract static class Benchmark {
+        final String name;
+        final int ops;
+
+        Benchmark(String name, int ops) {
+            this.name = name;
+            this.ops = ops;
+        }
+
+        void setUp() {}
+
+        abstract double run();
+    }
+
+    private static class PerStepBenchmark extends Benchmark {
+        private final Snapshot snapshot;
+        private final Projectile[] projectiles;
+        private final boolean adaptiveSubSteps;
+        private CarTracker.WEngine engine;
+        private CarTracker.WState start;
+
+        PerStepBenchmark(String name, Snapshot snapshot, Projectile[] projectiles, boolean adaptiveSubSteps) {
+            super(name, 100_000);
+            this.snapshot = snapshot;
+            this.projectiles = projectiles;
+            this.adaptiveSubSteps = adaptiveSubSteps;
+        }
+
+        @Override
+        void setUp() {
+            engine = snapshot.createWorldEngine(projectiles);
+            engine.setResolveBorderCollisions(true);
+            engine.setAdaptiveSubSteps(adaptiveSubSteps);
+            engine.getCarEngine(0).setEnginePowerAim(1.0);
+            engine.getCarEngine(0).setWheelTurnAim(0.3);
+            start = engine.getState().copy();
+        }
+
+        @Override
+        double run() {
+            double result = 0;
+            for (int i = 0; i < ops; i++) {
+                if (i % 100 == 0)
+                    engine.getState().set(start);
+                engine.perStep();
+                result += engine.getState().getCarState(0).x;
+            }
+            return result;
+        }
+    }
+
+    private static class BuildBestPathBenchmark extends Benchmark {
+        private final Snapshot snapshot;
+        private final int sCount;
+        private final boolean ucb;
+        private final boolean frontier;
+        private final CarTracker.StateArena arena = new CarTracker.StateArena();
+
+        BuildBestPathBenchmark(String name, Snapshot snapshot, int sCount, boolean ucb, boolean frontier) {
+            super(name, 1);
+            this.snapshot = snapshot;
+            this.sCount = sCount;
+            this.ucb = ucb;
+            this.frontier = frontier;
+        }
+
+        @Override
+        double run() {
+            ResourcesController.startMove(snapshot.world, 1.0, 1.0, 1.0);
+            arena.reset();
+            CarTracker.WEngine engine = snapshot.createWorldEngine(new Projectile[0]);
+            engine.setResolveBorderCollisions(false);
+            CarTracker.CarNode.TreeStrategy treeStrategy = ucb ? new CarTracker.CarNode.UcbTreeStrategy() : new CarTracker.CarNode.StateTreeStrategy();
+            boolean frontierSearch = Driver.FRONTIER_SEARCH;
+            Driver.FRONTIER_SEARCH = frontier;
+            try {
+                CarTracker.CarNode node = Driver.buildBestPath(450, sCount, treeStrategy, engine.getState().copy(), snapshot.data,
+                        new Driver.CarNodeQualityComparator(), engine, 0.7, false, true, arena);
+                return node.getMaxWorth();
+            } finally {
+                Driver.FRONTIER_SEARCH = frontierSearch;
+            }
+        }
+    }
+
+    /**
+     * Состояние игры, на котором идут замеры
+     */
+    private static class Snapshot {
+        final Game game;
+        final World world;
+        final Car self;
+        final int[][] waypoints;
+        final GameData data;
+        final int[][] path;
+
+        /**
+         * @param prevWorld мир прошлого тика, из него берутся прошлые состояния машин
+         */
+        private Snapshot(Game game, World world, World prevWorld, Car self) {
+            this.game = game;
+            this.world = world;
+            this.self = self;
+            this.waypoints = world.getWaypoints();
+            this.data = new GameData(self, world, game, new Move(), new GameData.PrevStates(prevWorld, game));
+            this.path = GameUtil.findPath(self.getNextWaypointIndex(), data);
+        }
+
+        /**
+         * Тик игры, записанной Runner'ом, машина - первая из своих
+         */
+        static Snapshot replay(String recordFile, int tick) throws IOException {
+            RemoteProcessClient client = RemoteProcessClient.replay(recordFile);
+            try {
+                client.readTeamSize();
+                Game game = client.readGameContext();
+
+                PlayerContext context;
+                World prevWorld = null;
+                while ((context = client.readPlayerContext()) != null) {
+                    if (context.getWorld().getTick() >= tick)
+                        break;
+                    prevWorld = context.getWorld();
+                }
+                if (context == null)
+                    throw new IllegalArgumentException("No tick " + tick + " in " + recordFile);
+
+                World world = context.getWorld();
+                return new Snapshot(game, world, prevWorld == null ? world : prevWorld, context.getCars()[0]);
+            } finally {
+                client.close();
+            }
+        }
+
+        /**
+         * Кольцевая трасса по краю карты width x height, машина на старте верхней прямой
+         */
+        static Snapshot ring(int width, int height) {
+            double tSize = 800;
+            Game game = new Game(0, 5000, width, height, tSize, 80, 2, 1700, 180, 0.25, new int[]{256, 128, 64, 32}, 32, 0.5, 100, 100,
+                    210, 140, 0.025, 0.05, 0.0017453292519943296, 0.0075, 0.0075, 0.001, 0.25, 0.0017453292519943296,
+                    60, 120, 120, 2.0, 120, 300, 1250, 312.5, 234.375, 1500, 375, 281.25, 70, 100, 20, 20, 10, 60, 0.15,
+                    Math.PI / 90, 70, 1000, 60, 0.35, 0.25, 10, 150, 600, 60);
+
+            TileType[][] tiles = new TileType[width][height];
+            for (TileType[] column : tiles) {
+                Arrays.fill(column, TileType.EMPTY);
+            }
+            for (int x = 1; x < width - 1; x++) {
+                tiles[x][0] = TileType.HORIZONTAL;
+                tiles[x][height - 1] = TileType.HORIZONTAL;
+            }
+            for (int y = 1; y < height - 1; y++) {
+                tiles[0][y] = TileType.VERTICAL;
+                tiles[width - 1][y] = TileType.VERTICAL;
+            }
+            tiles[0][0] = TileType.LEFT_TOP_CORNER;
+            tiles[width - 1][0] = TileType.RIGHT_TOP_CORNER;
+            tiles[0][height - 1] = TileType.LEFT_BOTTOM_CORNER;
+            tiles[width - 1][height - 1] = TileType.RIGHT_BOTTOM_CORNER;
+
+            int[][] waypoints = {{width / 2, 0}, {width - 1, height / 2}, {width / 2, height - 1}, {0, height / 2}};
+
+            Car self = new Car(1, 1250, 1.5 * tSize, 0.5 * tSize, 0, 0, 0, 0, 210, 140, 1, 0, true, CarType.BUGGY,
+                    1, 1, 1, 0, 0, 0, 0, 0, 1.0, 0, 0, 0, waypoints[0][0], waypoints[0][1], false);
+            Car enemy = new Car(2, 1250, 2.5 * tSize, 0.5 * tSize, 0, 0, 0, 0, 210, 140, 2, 0, false, CarType.BUGGY,
+                    1, 1, 1, 0, 0, 0, 0, 0, 1.0, 0, 0, 0, waypoints[0][0], waypoints[0][1], false);
+
+            List<Bonus> bonuses = new ArrayList<>();
+            BonusType[] bonusTypes = BonusType.values();
+            for (int x = 1; x < width - 1; x++) {
+                bonuses.add(new Bonus(100 + x, 100, (x + 0.5) * tSize, 0.4 * tSize, 0, 0, 0, 0, 70, 70, bonusTypes[x % bonusTypes.length]));
+                bonuses.add(new Bonus(200 + x, 100, (x + 0.5) * tSize, (height - 0.6) * tSize, 0, 0, 0, 0, 70, 70, bonusTypes[x % bonusTypes.length]));
+            }
+
+            World world = new World(200, 5000, 4999, width, height,
+                    new Player[] {new Player(1, true, "bench", false, 0), new Player(2, false, "enemy", false, 0)},
+                    new Car[] {self, enemy}, new Projectile[0], bonuses.toArray(new Bonus[bonuses.size()]), new OilSlick[0],
+                    "bench", tiles, waypoints, Direction.RIGHT);
+
+            return new Snapshot(game, world, world, self);
+        }
+
+        CarTracker.CarPathEngine createCarEngine() {
+            return new CarTracker.CarPathEngine(self, data, path, (short) self.getNextWaypointIndex());
+        }
+
+        CarTracker.WEngine createWorldEngine(Projectile[] projectiles) {
+            CarTracker.CarPathEngine carEngine = createCarEngine();
+            CarTracker.WEngine engine = new CarTracker.WEngine(new CarTracker.CarPathEngine[] {carEngine}, data, world.getOilSlicks(), null);
+            engine.setAdaptiveSubSteps(Driver.ADAPTIVE_SUB_STEPS);
+            engine.setState(new CarTracker.WState(new CarTracker.CState[] {carEngine.getState()}, data, projectiles));
+            return engine;
+        }
+
+        /**
+         * Шайбы и шины перед машиной
+         */
+        Projectile[] createProjectiles() {
+            Projectile[] projectiles = new Projectile[6];
+            for (int i = 0; i < projectiles.length; i++) {
+                ProjectileType type = i % 2 == 0 ? ProjectileType.WASHER : ProjectileType.TIRE;
+                double radius = type == ProjectileType.WASHER ? game.getWasherRadius() : game.getTireRadius();
+                double mass = type == ProjectileType.WASHER ? game.getWasherMass() : game.getTireMass();
+                projectiles[i] = new Projectile(1000 + i, mass, self.getX() + 300 + 150 * i, self.getY() + (i % 3 - 1) * 60,
+                        -10, 0, 0, 0, radius, 2, 2, type);
+            }
+            return projectiles;
+        }
+
+        /**
+         * Шины, отскакивающие от бортов нижней прямой, и шайбы на ней же - далеко от машины
+         */
+        Projectile[] createFarProjectiles() {
+            double tSize = game.getTrackTileSize();
+            double y = (world.getHeight() - 0.5) * tSize;
+            Projectile[] projectiles = new Projectile[6];
+            for (int i = 0; i < projectiles.length; i++) {
+                ProjectileType type = i % 2 == 0 ? ProjectileType.TIRE : ProjectileType.WASHER;
+                double radius = type == ProjectileType.TIRE ? game.getTireRadius() : game.getWasherRadius();
+                double mass = type == ProjectileType.TIRE ? game.getTireMass() : game.getWasherMass();
+                projectiles[i] = new Projectile(2000 + i, mass, (2.5 + i) * tSize, y, 5, i % 2 == 0 ? 40 : 0, 0, 0, radius, 2, 2, type);
+            }
+            return projectiles;
+        }
+
+        /**
+         * Положения машины вдоль трассы, часть из них у бортов
+         */
+        UnitState.CarState[] createProbeStates(int count) {
+            Random random = new Random(0);
+            double tSize = game.getTrackTileSize();
+            UnitState.CarState[] states = new UnitState.CarState[count];
+            for (int i = 0; i < count; i++) {
+                UnitState.CarState state = new UnitState.CarState(self, 0, game);
+                int tile = random.nextInt(world.getWidth() - 2) + 1;
+                double angle = random.nextDouble() * 2 * Math.PI;
+                state.x = (tile + random.nextDouble()) * tSize;
+                state.y = random.nextDouble() * tSize;
+                state.ax = Math.cos(angle);
+                state.ay = Math.sin(angle);
+                states[i] = state;
+            }
+            return states;
+        }
+    }
+}
@@ -21,10 +21,19 @@ public class Borders {
 
     private final Collider.CircleBox circleBoxCollider;
     private final CollisionChecker[] collisionCheckers;
+    private final Bonus[] bonuses;
     private final int[][] bonusIndexes;
     public final double[] bonusesData;
 
     public Borders(GameData data) {
+        this(data, null);
+    }
+
+    /**
+     * @param prev Borders прошлого хода (может быть null). Проверки столкновений берутся из него для тайлов,
+     *             вокруг которых карта не изменилась, индекс бонусов - если не изменились бонусы
+     */
+    public Borders(GameData data, Borders prev) {
         tSize = data.game.getTrackTileSize();
         tMargin = data.game.getTrackTileMargin();
         invSubSize = (1.0* SubSector.STEPS) / tSize;
@@ -40,46 +49,112 @@ public class Borders {
         tireAMInv = 2.0 * tireMInv / (tireRadius*tireRadius);
         tileTypes = data.tileTypes;
         tileTypeInfo = data.tileTypeInfo;
+        bonuses = data.bonuses;
+
+        if (prev != null && (prev.width != width || prev.height != height))
+            prev = null;
 
-        circleBoxCollider = new Collider.CircleBox(tMargin, carW2, carH2);
-        collisionCheckers = new CollisionChecker[width * height * SubSector.STEPS * SubSector.STEPS];
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                TileType tileType = tileTypes[x][y];
-                if (tileType == null || TileType.EMPTY.equals(tileType))
-                    continue;
-
-                Util.TileInfo tileInfo = tileTypeInfo.get(tileType);
-                Util.TileInfo leftNeighbor = x <= 0 ? null : tileTypeInfo.get(tileTypes[x + Util.Side.LEFT.x][y + Util.Side.LEFT.y]);
-                Util.TileInfo rightNeighbor = x >= (width-1) ? null : tileTypeInfo.get(tileTypes[x + Util.Side.RIGHT.x][y + Util.Side.RIGHT.y]);
-                Util.TileInfo topNeighbor = y <= 0 ? null : tileTypeInfo.get(tileTypes[x + Util.Side.TOP.x][y + Util.Side.TOP.y]);
-                Util.TileInfo bottomNeighbor = y >= (height-1) ? null : tileTypeInfo.get(tileTypes[x + Util.Side.BOTTOM.x][y + Util.Side.BOTTOM.y]);
-
-                if (isBorder(tileInfo, Util.Side.LEFT, leftNeighbor))
-                    collisionCheckers[getIndex(x, y, SubSector.LEFT_MIDDLE)] = new LeftLineChecker(x, SubSector.LEFT_MIDDLE, tSize, tMargin);
-                if (isBorder(tileInfo, Util.Side.TOP, topNeighbor))
-                    collisionCheckers[getIndex(x, y, SubSector.MIDDLE_TOP)] = new TopLineChecker(y, SubSector.MIDDLE_TOP, tSize, tMargin);
-                if (isBorder(tileInfo, Util.Side.RIGHT, rightNeighbor))
-                    collisionCheckers[getIndex(x, y, SubSector.RIGHT_MIDDLE)] = new RightLineChecker(x, SubSector.RIGHT_MIDDLE, tSize, tMargin);
-                if (isBorder(tileInfo, Util.Side.BOTTOM, bottomNeighbor))
-                    collisionCheckers[getIndex(x, y, SubSector.MIDDLE_BOTTOM)] = new BottomLineChecker(y, SubSector.MIDDLE_BOTTOM, tSize, tMargin);
-
-                CollisionChecker leftTopChecker = getCornerChecker(x, y, Util.Side.LEFT, Util.Side.TOP, leftNeighbor, topNeighbor, SubSector.LEFT_TOP);
-                collisionCheckers[getIndex(x, y, SubSector.LEFT_TOP)] = leftTopChecker;
-                CollisionChecker rightTopChecker = getCornerChecker(x, y, Util.Side.TOP, Util.Side.RIGHT, topNeighbor, rightNeighbor, SubSector.RIGHT_TOP);
-                collisionCheckers[getIndex(x, y, SubSector.RIGHT_TOP)] = rightTopChecker;
-                CollisionChecker rightBottomChecker = getCornerChecker(x, y, Util.Side.RIGHT, Util.Side.BOTTOM, rightNeighbor, bottomNeighbor, SubSector.RIGHT_BOTTOM);
-                collisionCheckers[getIndex(x, y, SubSector.RIGHT_BOTTOM)] = rightBottomChecker;
-                CollisionChecker leftBottomChecker = getCornerChecker(x, y, Util.Side.BOTTOM, Util.Side.LEFT, bottomNeighbor, leftNeighbor, SubSector.LEFT_BOTTOM);
-                collisionCheckers[getIndex(x, y, SubSector.LEFT_BOTTOM)] = leftBottomChecker;
+        if (prev == null) {
+            circleBoxCollider = new Collider.CircleBox(tMargin, carW2, carH2);
+            collisionCheckers = new CollisionChecker[width * height * SubSector.STEPS * SubSector.STEPS];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    buildTileCheckers(x, y);
+                }
+            }
+        } else {
+            circleBoxCollider = prev.circleBoxCollider;
+            if (prev.tileTypes == tileTypes) {
+                collisionCheckers = prev.collisionCheckers;
+            } else {
+                //проверки тайла зависят от него самого и от соседей
+                collisionCheckers = prev.collisionCheckers.clone();
+                boolean[][] changed = new boolean[width][height];
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        if (tileTypes[x][y] != prev.tileTypes[x][y]) {
+                            changed[x][y] = true;
+                            for (Util.Side side : Util.Side.values()) {
+                                int nX = x + side.x;
+                                int nY = y + side.y;
+                                if (nX >= 0 && nX < width && nY >= 0 && nY < height)
+                                    changed[nX][nY] = true;
+                            }
+                        }
+                    }
+                }
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        if (changed[x][y])
+                            buildTileCheckers(x, y);
+                    }
+                }
             }
         }
 
+        if (prev != null && isSameBonuses(prev.bonuses, bonuses)) {
+            bonusIndexes = prev.bonusIndexes;
+            bonusesData = prev.bonusesData;
+        } else {
+            bonusIndexes = buildBonusIndexes(bonuses);
+            bonusesData = buildBonusesData(bonuses);
+        }
+    }
+
+    private void buildTileCheckers(int x, int y) {
+        for (SubSector sector : SubSector.values()) {
+            collisionCheckers[getIndex(x, y, sector)] = null;
+        }
+
+        TileType tileType = tileTypes[x][y];
+        if (tileType == null || TileType.EMPTY.equals(tileType))
+            return;
+
+        Util.TileInfo tileInfo = tileTypeInfo.get(tileType);
+        Util.TileInfo leftNeighbor = x <= 0 ? null : tileTypeInfo.get(tileTypes[x + Util.Side.LEFT.x][y + Util.Side.LEFT.y]);
+        Util.TileInfo rightNeighbor = x >= (width-1) ? null : tileTypeInfo.get(tileTypes[x + Util.Side.RIGHT.x][y + Util.Side.RIGHT.y]);
+        Util.TileInfo topNeighbor = y <= 0 ? null : tileTypeInfo.get(tileTypes[x + Util.Side.TOP.x][y + Util.Side.TOP.y]);
+        Util.TileInfo bottomNeighbor = y >= (height-1) ? null : tileTypeInfo.get(tileTypes[x + Util.Side.BOTTOM.x][y + Util.Side.BOTTOM.y]);
+
+        if (isBorder(tileInfo, Util.Side.LEFT, leftNeighbor))
+            collisionCheckers[getIndex(x, y, SubSector.LEFT_MIDDLE)] = new LeftLineChecker(x, SubSector.LEFT_MIDDLE, tSize, tMargin);
+        if (isBorder(tileInfo, Util.Side.TOP, topNeighbor))
+            collisionCheckers[getIndex(x, y, SubSector.MIDDLE_TOP)] = new TopLineChecker(y, SubSector.MIDDLE_TOP, tSize, tMargin);
+        if (isBorder(tileInfo, Util.Side.RIGHT, rightNeighbor))
+            collisionCheckers[getIndex(x, y, SubSector.RIGHT_MIDDLE)] = new RightLineChecker(x, SubSector.RIGHT_MIDDLE, tSize, tMargin);
+        if (isBorder(tileInfo, Util.Side.BOTTOM, bottomNeighbor))
+            collisionCheckers[getIndex(x, y, SubSector.MIDDLE_BOTTOM)] = new BottomLineChecker(y, SubSector.MIDDLE_BOTTOM, tSize, tMargin);
+
+        CollisionChecker leftTopChecker = getCornerChecker(x, y, Util.Side.LEFT, Util.Side.TOP, leftNeighbor, topNeighbor, SubSector.LEFT_TOP);
+        collisionCheckers[getIndex(x, y, SubSector.LEFT_TOP)] = leftTopChecker;
+        CollisionChecker rightTopChecker = getCornerChecker(x, y, Util.Side.TOP, Util.Side.RIGHT, topNeighbor, rightNeighbor, SubSector.RIGHT_TOP);
+        collisionCheckers[getIndex(x, y, SubSector.RIGHT_TOP)] = rightTopChecker;
+        CollisionChecker rightBottomChecker = getCornerChecker(x, y, Util.Side.RIGHT, Util.Side.BOTTOM, rightNeighbor, bottomNeighbor, SubSector.RIGHT_BOTTOM);
+        collisionCheckers[getIndex(x, y, SubSector.RIGHT_BOTTOM)] = rightBottomChecker;
+        CollisionChecker leftBottomChecker = getCornerChecker(x, y, Util.Side.BOTTOM, Util.Side.LEFT, bottomNeighbor, leftNeighbor, SubSector.LEFT_BOTTOM);
+        collisionCheckers[getIndex(x, y, SubSector.LEFT_BOTTOM)] = leftBottomChecker;
+    }
+
+    private static boolean isSameBonuses(Bonus[] bonuses1, Bonus[] bonuses2) {
+        if (bonuses1 == bonuses2)
+            return true;
+        if (bonuses1.length != bonuses2.length)
+            return false;
+
+        for (int i = 0; i < bonuses1.length; i++) {
+            Bonus b1 = bonuses1[i];
+            Bonus b2 = bonuses2[i];
+            if (b1.getId() != b2.getId() || b1.getX() != b2.getX() || b1.getY() != b2.getY() || b1.getWidth() != b2.getWidth() || b1.getHeight() != b2.getHeight())
+                return false;
+        }
+        return true;
+    }
+
+    private int[][] buildBonusIndexes(Bonus[] bonuses) {
         Util.Side[] sides = Util.Side.values();
-        List<Integer>[] sectorsBonuses = new List[collisionCheckers.length];
-        for (int i=0;i<data.bonuses.length; i++) {
-            Bonus bonus = data.bonuses[i];
+        List<Integer>[] sectorsBonuses = new List[width * height * SubSector.STEPS * SubSector.STEPS];
+        for (int i=0;i<bonuses.length; i++) {
+            Bonus bonus = bonuses[i];
             int xIndex = (int)(bonus.getX() * invSubSize);
             int yIndex = (int)(bonus.getY() * invSubSize);
             List<Integer> secBonuses =  sectorsBonuses[yIndex * width3 + xIndex];
@@ -102,7 +177,7 @@ public class Borders {
             }
         }
 
-        bonusIndexes = new int[sectorsBonuses.length][];
+        int[][] bonusIndexes = new int[sectorsBonuses.length][];
         for (int i=0;i<sectorsBonuses.length;i++) {
             List<Integer> secBonuses = sectorsBonuses[i];
             if (secBonuses != null && secBonuses.size() > 0) {
@@ -113,22 +188,29 @@ public class Borders {
                 }
             }
         }
+        return bonusIndexes;
+    }
 
-        bonusesData = new double[data.bonuses.length*4];
-        for (int i=0;i<data.bonuses.length;i++) {
-            Bonus bonus = data.bonuses[i];
+    private static double[] buildBonusesData(Bonus[] bonuses) {
+        double[] bonusesData = new double[bonuses.length*4];
+        for (int i=0;i<bonuses.length;i++) {
+            Bonus bonus = bonuses[i];
             bonusesData[i*4] = bonus.getX();
             bonusesData[i*4 + 1] = bonus.getY();
             bonusesData[i*4 + 2] = (bonus.getWidth() / 2) - 1;
             bonusesData[i*4 + 3] = (bonus.getHeight() / 2) - 1;
         }
+        return bonusesData;
     }
 
     private int getIndex(int x, int y, SubSector sector) {
         return y * width * SubSector.STEPS * SubSector.STEPS + sector.y * width * SubSector.STEPS + x * SubSector.STEPS + sector.x;
     }
 
-    public int checkBonusCollision(UnitState state, long bonuses1, long bonuses2) {
+    /**
+     * @param bonuses битовая маска оставшихся бонусов (индексы в data.bonuses)
+     */
+    public int checkBonusCollision(UnitState state, long[] bonuses) {
         if (state.x < 0 || state.y < 0 || state.x >= dWidth || state.y >= dHeight)
             return -1;
 
@@ -138,16 +220,9 @@ public class Borders {
         int[] bIndexes = bonusIndexes[sIndex];
         if (bIndexes != null) {
             for (int bIndex : bIndexes) {
-                boolean exist;
-                if (bIndex < 64) {
-                    long bMask = 1L << bIndex;
-                    exist = (bonuses1 & bMask) > 0;
-                } else {
-                    long bMask = 1L << (bIndex - 64);
-                    exist = (bonuses2 & bMask) > 0;
-                }
-
-                if (exist) {
+                int word = bIndex >>> 6;
+                //у состояния с прошлого тика бонусов может быть меньше
+                if (word < bonuses.length && (bonuses[word] & (1L << bIndex)) != 0) {
                     int bI = bIndex*4;
                     double bx = bonusesData[bI];
                     double by = bonusesData[bI + 1];
@@ -195,7 +270,10 @@ public class Borders {
         return true;
     }
 
-    public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, boolean resolve) {
+    /**
+     * collision - буфер вызывающего для столкновений с углами, нужен только при resolve
+     */
+    public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, boolean resolve, Collider.Collision collision) {
         if (state.x < 0 || state.y < 0 || state.x >= dWidth || state.y >= dHeight)
             return true;
 
@@ -204,12 +282,28 @@ public class Borders {
         int sIndex = yIndex * width3 + xIndex;
         CollisionChecker collisionChecker = collisionCheckers[sIndex];
         if (collisionChecker != null) {
-            if (collisionChecker.collideBox(state, Vaw, invM, invAM, carW2, carH2, resolve))
+            if (collisionChecker.collideBox(state, Vaw, invM, invAM, carW2, carH2, resolve, collision))
                 return true;
         }
         return false;
     }
 
+    /**
+     * В подсекторе точки нет бортов: машина с центром в нем не может столкнуться
+     */
+    public boolean isClear(double x, double y) {
+        if (x < 0 || y < 0 || x >= dWidth || y >= dHeight)
+            return false;
+
+        int xIndex = (int)(x * invSubSize);
+        int yIndex = (int)(y * invSubSize);
+        if (collisionCheckers[yIndex * width3 + xIndex] != null)
+            return false;
+
+        TileType tileType = tileTypes[xIndex / SubSector.STEPS][yIndex / SubSector.STEPS];
+        return tileType != null && !TileType.EMPTY.equals(tileType) && !TileType.UNKNOWN.equals(tileType);
+    }
+
     public boolean collideCircle(WorldEngine.ProjectileState state) {
         int xIndex = (int)(state.x * invSubSize);
         int yIndex = (int)(state.y * invSubSize);
@@ -222,7 +316,7 @@ public class Borders {
     }
 
     private interface CollisionChecker {
-        boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve);
+        boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve, Collider.Collision collision);
         boolean collideCircle(WorldEngine.ProjectileState state, double radius, double invM, double invAM);
     }
 
@@ -282,7 +376,7 @@ public class Borders {
             this.rightX = ((sector.x + 1)/ SubSector.STEPS + x)*tSize - tMargin;
         }
         @Override
-        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve) {
+        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve, Collider.Collision collision) {
             return collideBox(state, Vaw, invM, invAM, wight2, height2, rightX, resolve);
         }
 
@@ -399,7 +493,7 @@ public class Borders {
             this.leftX = (x + sector.x / SubSector.STEPS) * tSize + tMargin;
         }
         @Override
-        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve) {
+        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve, Collider.Collision collision) {
             return collideBox(state, Vaw, invM, invAM, wight2, height2, leftX, resolve);
         }
 
@@ -516,7 +610,7 @@ public class Borders {
             this.topY = (y + sector.y / SubSector.STEPS) * tSize + tMargin;
         }
         @Override
-        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve) {
+        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve, Collider.Collision collision) {
             return collideBox(state, Vaw, invM, invAM, wight2, height2, topY, resolve);
         }
 
@@ -633,7 +727,7 @@ public class Borders {
             this.bottomY = (y + (sector.y + 1) / SubSector.STEPS) * tSize - tMargin;
         }
         @Override
-        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve) {
+        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve, Collider.Collision collision) {
             return collideBox(state, Vaw, invM, invAM, wight2, height2, bottomY, resolve);
         }
 
@@ -765,21 +859,21 @@ public class Borders {
             }
         }
 
-        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve) {
-            boolean collision = false;
+        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve, Collider.Collision collision) {
+            boolean result = false;
             if (this.yScale == -1 && BottomLineChecker.collideBox(state, Vaw, invM, invAM, wight2, height2, this.yLine, resolve))
-                collision = true;
+                result = true;
 
             if (this.yScale == 1 && TopLineChecker.collideBox(state, Vaw, invM, invAM, wight2, height2, this.yLine, resolve))
-                collision = true;
+                result = true;
 
             if (this.xScale == 1 && LeftLineChecker.collideBox(state, Vaw, invM, invAM, wight2, height2, this.xLine, resolve))
-                collision = true;
+                result = true;
 
             if (this.xScale == -1 && RightLineChecker.collideBox(state, Vaw, invM, invAM, wight2, height2, this.xLine, resolve))
-                collision = true;
+                result = true;
 
-            return collision;
+            return result;
 
 //            double axw = state.ax * wight2;
 //            double ayh = state.ay * height2;
@@ -833,13 +927,12 @@ public class Borders {
         }
 
         @Override
-        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve) {
+        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve, Collider.Collision collision) {
             double x = circleCenter.getX() - state.x;
             double y = circleCenter.getY() - state.y;
 
             if (resolve) {
-                Collider.Collision collision = circleBoxCollider.checkBoxCentred(x, y, state.ax, state.ay);
-                if (collision != null) {
+                if (circleBoxCollider.checkBoxCentred(x, y, state.ax, state.ay, collision)) {
                     double carToCX = collision.x;
                     double carToCY = collision.y;
 
@@ -1007,7 +1100,7 @@ public class Borders {
         }
 
         @Override
-        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve) {
+        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve, Collider.Collision collision) {
             double uPosX = rot.x * (state.x - centerX) + rot.y * (state.y - centerY);
             double uPosY = rot.x * (state.y - centerY) - rot.y * (state.x - centerX);
 
@@ -1075,7 +1168,7 @@ public class Borders {
 //            if ((uPos.y + rightCorner.y) < bottom)
 //                return true;
 
-            return super.collideBox(state, Vaw, invM, invAM, wight2, height2, resolve);
+            return super.collideBox(state, Vaw, invM, invAM, wight2, height2, resolve, collision);
         }
 
         @Override
@@ -1106,7 +1199,7 @@ public class Borders {
         }
 
         @Override
-        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve) {
+        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve, Collider.Collision collision) {
             double uPosX = rot.x * (state.x - centerX) + rot.y * (state.y - centerY);
             double uPosY = rot.x * (state.y - centerY) - rot.y * (state.x - centerX);
 
@@ -1162,7 +1255,7 @@ public class Borders {
 //            if ((uPos.y + rightCorner.y) > bottom)
 //                return true;
 
-            return super.collideBox(state, Vaw, invM, invAM, wight2, height2, resolve);
+            return super.collideBox(state, Vaw, invM, invAM, wight2, height2, resolve, collision);
         }
     }
 
@@ -1175,7 +1268,7 @@ public class Borders {
         }
 
         @Override
-        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve) {
+        public boolean collideBox(UnitState.CarState state, double Vaw, double invM, double invAM, double wight2, double height2, boolean resolve, Collider.Collision collision) {
             double uPosX = rotation.x * (state.x - centerX) + rotation.y * (state.y - centerY);
             double uPosY = rotation.x * (state.y - centerY) - rotation.y * (state.x - centerX);
 
@@ -1239,7 +1332,7 @@ public class Borders {
 //            if ((uPos.y + rightCorner.y) > bottom || (uPos.x + bottomCorner.x) > bottom)
 //                return true;
 
-            return super.collideBox(state, Vaw, invM, invAM, wight2, height2, resolve);
+            return super.collideBox(state, Vaw, invM, invAM, wight2, height2, resolve, collision);
         }
     }
 
@@ -8,6 +8,8 @@ import java.util.Arrays;
 import java.util.List;
 
 public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
+    private static final int TRANSPOSITION_STEP = 8;
+
     private final CarNode.TreeStrategy treeStrategy;
 
     private final WEngine engine;
@@ -16,11 +18,21 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
     private final int trackLen;
     private final boolean allowBack, allowNitro;
     private final double minBreakSpeed;
+    private final StateArena arena;
+    private final WState workState;
+    //ключи состояний, построенных этим поиском (трекер создается на каждый поиск)
+    private final LongSet transpositions = new LongSet();
 
     public CarTracker(CarNode.TreeStrategy treeStrategy, WEngine engine, int trackLen, double minBreakSpeed, boolean allowBack, boolean allowNitro) {
+        this(treeStrategy, engine, trackLen, minBreakSpeed, allowBack, allowNitro, null);
+    }
+
+    public CarTracker(CarNode.TreeStrategy treeStrategy, WEngine engine, int trackLen, double minBreakSpeed, boolean allowBack, boolean allowNitro, StateArena arena) {
         this.treeStrategy = treeStrategy;
         this.engine = engine;
+        this.arena = arena;
         this.startState = engine.getState().copy();
+        this.workState = this.startState.copy();
         this.engine.setState(this.startState);
         this.carIndex = 0;
         this.trackLen = trackLen;
@@ -135,6 +147,48 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
         return treeStrategy.isTrunkTurn(node);
     }
 
+    /**
+     * Ценность лучшего пути корня, проходящего через node: хуже лучшего пути через parent
+     * на отставание node от лучшего брата, дисконтированное до тика начала node
+     */
+    @Override
+    protected double getEvictionValuation(CarNode node, CarNode parent, double parentValuation, int rootLen) {
+        if (parent == null)
+            return node.maxWorth;
+
+        double maxWorth = -Double.MAX_VALUE;
+        for (CarNode child : parent.children) {
+            if (child.maxWorth > maxWorth)
+                maxWorth = child.maxWorth;
+        }
+        return parentValuation - Math.pow(CarNode.K, rootLen) * (maxWorth - node.maxWorth);
+    }
+
+    @Override
+    protected boolean isEvictable(CarNode node, CarNode parent) {
+        //варианты заноса на масле усредняются, выкидывать их по одному нельзя
+        return !(parent instanceof CarNodeOiled);
+    }
+
+    @Override
+    protected void onEvicted(CarNode node) {
+        //иначе ствол, дошедший до состояния выкинутой ветки, обрывался бы как повтор уже несуществующей ветки.
+        //Ключ обрезанного ствола принадлежит другой ветке и тоже удаляется - она лишь перестанет обрывать повторы
+        for (int i = 0; i < node.trunk.length; i++) {
+            WState state = node.trunk.get(i);
+            if (state.tick % TRANSPOSITION_STEP == 0)
+                transpositions.remove(state.getTranspositionKey());
+            if (arena != null && state.pooled)
+                arena.release(state);
+        }
+
+        if (node.children != null) {
+            for (CarNode child : node.children) {
+                onEvicted(child);
+            }
+        }
+    }
+
     @Override
     protected CarNode[] buildTrunkChildren(CarNode parent, WState start, int rootLen) {
         int len = trackLen - rootLen;
@@ -182,7 +236,12 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
     public CarNode buildTrunkNode(double wt, double ep, boolean breakPedal, boolean useNitro, WState start, int len) {
         WState[] states = new WState[len];
 
-        engine.setState(start.copy());
+        if (arena != null) {
+            workState.set(start);
+            engine.setState(workState);
+        } else {
+            engine.setState(start.copy());
+        }
         CarPathEngine cEngine = engine.getCarEngine(carIndex);
         cEngine.setEnginePowerAim(ep);
         cEngine.setWheelTurnAim(wt);
@@ -190,6 +249,7 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
         cEngine.setUseNitro(useNitro);
 
         int smallLenTick = 0;
+        boolean teammateCollision = false;
         CarNodeOiled oiledNode = null;
         int breakStopTick = Integer.MAX_VALUE;
         int index = 0;
@@ -207,12 +267,20 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
             int prevROT = cState.remainingOiledTicks;
             engine.perStep();
 
-            WState state = engine.getState().copy();
+            WState state = arena != null ? arena.copy(engine.getState()) : engine.getState().copy();
             states[index++] = state;
 
             if (cEngine.getState().collision)
                 break;
 
+            //ветка сошлась с уже построенной - дальше она повторит ее же.
+            //Сошедшиеся ветки остаются одинаковыми, поэтому проверять достаточно каждый TRANSPOSITION_STEP тик.
+            //Штраф за столкновение с напарником в ключ не входит, поэтому ствол после такого столкновения не сравнивается
+            if (state.teammateCollisionV2 > 0)
+                teammateCollision = true;
+            if (!teammateCollision && state.tick % TRANSPOSITION_STEP == 0 && !transpositions.add(state.getTranspositionKey()))
+                break;
+
             if (Math.abs(cEngine.getState().trackLen - prevLen) < 2.0) {
                 smallLenTick++;
             } else {
@@ -354,7 +422,7 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
         protected WState prevState;
         protected final double ep, wt;
         protected final boolean breakPedal;
-        protected final int breakStopTick;
+        protected int breakStopTick;
         protected final boolean useNitro;
 
         protected int maxDist, bestPathMaxDist;
@@ -364,6 +432,14 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
         protected double eventWorth, mDistWorth;
         protected double[] distWorth;
 
+        //агрегаты ствола, пересчитываются только при изменении ствола (update(true))
+        private int trunkMaxDist, lastTrunkDist;
+        private double trunkK, trunkEventWorth;
+        private double[] trunkDistWorth;
+        private int trunkBonusCount;
+        private double[] trunkBonusWorth;
+        private int[] trunkBonusDist, trunkBonusPostDist;
+
         public CarNode(WState prevState, double ep, double wt, boolean breakPedal, int breakStopTick, boolean useNitro) {
             this.prevState = prevState;
             this.ep = ep;
@@ -375,52 +451,19 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
 
         @Override
         public void update(boolean updateTrunk) {
-            this.maxDist = 0;
-            this.branchCount = 1;
-            this.maxWorth = 0;
-            this.trunkLen = 0;
+            if (updateTrunk || trunkDistWorth == null)
+                updateTrunk();
 
-            this.bestPathMaxDist = 0;
-            this.distWorth = new double[30];
-            this.eventWorth = 0;
-            this.mDistWorth = 0;
-
-
-            CState prevCState = prevState.getCarState(0);
-            int lastTrunkDist = 0;
-
-            double k = 1;
-            if (trunk.length > 0) {
-                CState lastTrunkCState = trunk.get(trunk.length - 1).getCarState(0);
-                this.trunkLen = lastTrunkCState.trackLen - prevState.getCarState(0).trackLen;
-                lastTrunkDist = lastTrunkCState.dist - prevCState.dist;
-
-                double dWorth = 0;
-                for (int i = 0; i < trunk.length; i++) {
-                    k *= K;
-                    CState cState = trunk.get(i).getCarState(0);
-
-                    int dist = cState.dist - prevCState.dist;
-                    if (dist > this.maxDist) {
-                        double worth = k * 1000000 * (dist - this.maxDist);
-                        double Vl = cState.ax * cState.Vx + cState.ay * cState.Vy;
-                        if (Vl < 0)
-                            worth *= 0.2;
-
-                        dWorth += worth;
-
-                        for (int t=this.maxDist;t<dist;t++) {
-                            distWorth[t + 1] = dWorth;
-                        }
-                        this.maxDist = dist;
-                    }
-                }
-                this.maxWorth = dWorth;
-            }
+            this.maxDist = trunkMaxDist;
+            this.branchCount = 1;
+            this.maxWorth = trunkDistWorth[trunkMaxDist];
             this.fullLen = this.trunkLen;
-            this.bestPathMaxDist = this.maxDist;
 
+            this.bestPathMaxDist = trunkMaxDist;
+            this.distWorth = trunkDistWorth;
+            this.eventWorth = 0;
 
+            double k = trunkK;
             int cMaxDist = 0;
             if (children != null) {
                 int worthlessDist = this.bestPathMaxDist - lastTrunkDist;
@@ -457,26 +500,97 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
                 if (bestChild != null) {
                     this.eventWorth += k*bestChild.eventWorth;
 
-                    double dWorth = this.distWorth[this.bestPathMaxDist];
                     int cOverDist = bestChild.distWorth.length - worthlessDist;
-                    for (int t=1;t<cOverDist;t++) {
-                        dWorth += k * (bestChild.distWorth[worthlessDist + t] - bestChild.distWorth[worthlessDist]);
-                        this.distWorth[this.bestPathMaxDist + t] = dWorth;
+                    if (cOverDist > 1) {
+                        //массив ствола общий для всех пересчетов, дописываем в копию
+                        double[] distWorth = Arrays.copyOf(trunkDistWorth, trunkMaxDist + cOverDist);
+                        double dWorth = trunkDistWorth[trunkMaxDist];
+                        for (int t=1;t<cOverDist;t++) {
+                            dWorth += k * (bestChild.distWorth[worthlessDist + t] - bestChild.distWorth[worthlessDist]);
+                            distWorth[trunkMaxDist + t] = dWorth;
+                        }
+                        this.distWorth = distWorth;
+                        this.bestPathMaxDist = trunkMaxDist + cOverDist - 1;
                     }
-
-                    int cMDist = lastTrunkDist + bestChild.bestPathMaxDist;
-                    if (cMDist > this.bestPathMaxDist)
-                        this.bestPathMaxDist = cMDist;
                 }
             }
 
-            this.distWorth = Arrays.copyOf(this.distWorth, this.bestPathMaxDist + 1);
             this.mDistWorth = this.distWorth[this.bestPathMaxDist];
 
-            //--------------
+            //бонусы на стволе ценятся, только если после них машина проехала дальше (в том числе в детях)
+            double trunkEventWorth = this.trunkEventWorth;
+            for (int i = 0; i < trunkBonusCount; i++) {
+                int maxPostDist = trunkBonusPostDist[i];
+                if (cMaxDist > maxPostDist)
+                    maxPostDist = cMaxDist;
+
+                double scale = 1 / (1 + Math.exp(-(2.0 * ((maxPostDist - trunkBonusDist[i]) - 4.0))));
+
+                trunkEventWorth += scale * trunkBonusWorth[i];
+            }
+
+            this.eventWorth += trunkEventWorth;
+            this.maxWorth += trunkEventWorth;
+        }
+
+        /**
+         * Пересчитывает агрегаты ствола, не зависящие от детей
+         */
+        private void updateTrunk() {
+            CState prevCState = prevState.getCarState(0);
+
+            int[] dists = new int[trunk.length];
+            this.trunkMaxDist = 0;
+            for (int i = 0; i < trunk.length; i++) {
+                dists[i] = trunk.get(i).getCarState(0).dist - prevCState.dist;
+                if (dists[i] > trunkMaxDist)
+                    trunkMaxDist = dists[i];
+            }
+
+            this.trunkLen = 0;
+            this.lastTrunkDist = 0;
+            this.trunkDistWorth = new double[trunkMaxDist + 1];
+
+            double k = 1;
+            if (trunk.length > 0) {
+                CState lastTrunkCState = trunk.get(trunk.length - 1).getCarState(0);
+                this.trunkLen = lastTrunkCState.trackLen - prevCState.trackLen;
+                lastTrunkDist = dists[trunk.length - 1];
+
+                double dWorth = 0;
+                int maxDist = 0;
+                for (int i = 0; i < trunk.length; i++) {
+                    k *= K;
+                    int dist = dists[i];
+                    if (dist > maxDist) {
+                        CState cState = trunk.get(i).getCarState(0);
+                        double worth = k * 1000000 * (dist - maxDist);
+                        double Vl = cState.ax * cState.Vx + cState.ay * cState.Vy;
+                        if (Vl < 0)
+                            worth *= 0.2;
+
+                        dWorth += worth;
+
+                        for (int t=maxDist;t<dist;t++) {
+                            trunkDistWorth[t + 1] = dWorth;
+                        }
+                        maxDist = dist;
+                    }
+                }
+            }
+            this.trunkK = k;
+
+            //максимум dist от каждого состояния до конца ствола
+            int[] postDists = new int[trunk.length];
+            for (int i = trunk.length - 1; i >= 0; i--) {
+                postDists[i] = dists[i];
+                if (i + 1 < trunk.length && postDists[i + 1] > postDists[i])
+                    postDists[i] = postDists[i + 1];
+            }
 
             k = K;
             double trunkEventWorth = 0;
+            this.trunkBonusCount = 0;
             WState pState = prevState;
             CState pcState = pState.getCarState(0);
             for (int i = 0; i < trunk.length; i++) {
@@ -496,21 +610,8 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
                     trunkEventWorth += k * DAMAGE_WORTH * durabilityTaken;
                 }
 
-                if (worth > 0) {
-                    int dist = cState.dist - prevCState.dist;
-                    int maxPostDist = dist;
-                    for (int j = i; j < trunk.length; j++) {
-                        int dst = trunk.get(j).getCarState(0).dist - prevCState.dist;
-                        if (dst > maxPostDist)
-                            maxPostDist = dst;
-                    }
-                    if (cMaxDist > maxPostDist)
-                        maxPostDist = cMaxDist;
-
-                    double scale = 1 / (1 + Math.exp(-(2.0 * ((maxPostDist - dist) - 4.0))));
-
-                    trunkEventWorth += scale * worth;
-                }
+                if (worth > 0)
+                    addTrunkBonus(worth, dists[i], postDists[i]);
 
                 if (cState.collision)
                     trunkEventWorth -= k * 50000;
@@ -529,9 +630,90 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
                 pState = wState;
                 pcState = cState;
             }
+            this.trunkEventWorth = trunkEventWorth;
+        }
+
+        private void addTrunkBonus(double worth, int dist, int postDist) {
+            if (trunkBonusWorth == null) {
+                trunkBonusWorth = new double[4];
+                trunkBonusDist = new int[4];
+                trunkBonusPostDist = new int[4];
+            } else if (trunkBonusCount == trunkBonusWorth.length) {
+                trunkBonusWorth = Arrays.copyOf(trunkBonusWorth, 2 * trunkBonusCount);
+                trunkBonusDist = Arrays.copyOf(trunkBonusDist, 2 * trunkBonusCount);
+                trunkBonusPostDist = Arrays.copyOf(trunkBonusPostDist, 2 * trunkBonusCount);
+            }
+            trunkBonusWorth[trunkBonusCount] = worth;
+            trunkBonusDist[trunkBonusCount] = dist;
+            trunkBonusPostDist[trunkBonusCount] = postDist;
+            trunkBonusCount++;
+        }
 
-            this.eventWorth += trunkEventWorth;
-            this.maxWorth += trunkEventWorth;
+        /**
+         * Заменяет состояния поддерева, взятые из StateArena, на их копии
+         */
+        public void detach() {
+            detach(null, null);
+        }
+
+        private void detach(WState source, WState copy) {
+            WState prevSource = prevState;
+            if (prevState == source)
+                prevState = copy;
+
+            WState lastSource = prevSource;
+            WState lastCopy = prevState;
+            if (trunk.length > 0) {
+                lastSource = trunk.get(trunk.length - 1);
+                lastCopy = lastSource;
+
+                if (isPooled(trunk)) {
+                    WState[] states = new WState[trunk.length];
+                    for (int i = 0; i < states.length; i++) {
+                        WState state = trunk.get(i);
+                        states[i] = state.pooled ? state.copy() : state;
+                    }
+                    lastCopy = states[states.length - 1];
+                    trunk = new ArrayView<>(states, states.length);
+                }
+            }
+
+            if (children != null) {
+                for (CarNode child : children) {
+                    child.detach(lastSource, lastCopy);
+                }
+            }
+        }
+
+        private static boolean isPooled(ArrayView<WState> trunk) {
+            for (int i = 0; i < trunk.length; i++) {
+                if (trunk.get(i).pooled)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Сдвигает счетчики тиков поддерева, чтобы они отсчитывались от нового корня
+         */
+        public void shiftTicks(int ticks) {
+            shiftTicks(null, ticks);
+        }
+
+        private void shiftTicks(WState shifted, int ticks) {
+            if (prevState != shifted)
+                prevState.shiftTick(ticks);
+
+            for (int i = 0; i < trunk.length; i++) {
+                trunk.get(i).shiftTick(ticks);
+            }
+
+            WState last = trunk.length > 0 ? trunk.get(trunk.length - 1) : prevState;
+            if (children != null) {
+                for (CarNode child : children) {
+                    child.shiftTicks(last, ticks);
+                }
+            }
         }
 
         @Override
@@ -599,6 +781,46 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
             }
         }
 
+        /**
+         * UCB1: нормированная ценность ветки среди соседей плюс надбавка за редкие посещения,
+         * чтобы спуск не застревал в одной ветке. Розыгрыш - сам ствол, просчитанный с постоянным управлением
+         */
+        public static class UcbTreeStrategy implements TreeStrategy {
+            private final double exploration;
+
+            public UcbTreeStrategy() {
+                this(0.25);
+            }
+
+            public UcbTreeStrategy(double exploration) {
+                this.exploration = exploration;
+            }
+
+            @Override
+            public double getValuation(CarNode node, CarNode parent) {
+                double minWorth = Double.MAX_VALUE;
+                double maxWorth = -Double.MAX_VALUE;
+                for (CarNode child : parent.children) {
+                    minWorth = Math.min(minWorth, child.maxWorth);
+                    maxWorth = Math.max(maxWorth, child.maxWorth);
+                }
+
+                double range = maxWorth - minWorth;
+                double quality = range > 0 ? (node.maxWorth - minWorth) / range : 1.0;
+                return quality + exploration * Math.sqrt(Math.log(parent.visits + 1) / (node.visits + 1));
+            }
+
+            @Override
+            public boolean isTrunkTurn(CarNode node) {
+                return node.trunk.length > ((node.stateCount + 0.1) / node.branchCount);
+            }
+
+            @Override
+            public int selectTrunkPoint(CarNode node) {
+                return (node.trunk.length / 2) - 1;
+            }
+        }
+
         public static class DistTreeStrategy implements TreeStrategy {
             @Override
             public double getValuation(CarNode node, CarNode parent) {
@@ -894,6 +1116,7 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
 
     public static class WState extends WorldEngine.State<CState> {
         public int tick;
+        private boolean pooled;
 
         public WState(CState[] carState, GameData data, Projectile[] projectiles) {
             super(carState, data, projectiles);
@@ -909,6 +1132,197 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
             state.tick = this.tick;
             return state;
         }
+
+        public void set(WState state) {
+            super.set(state);
+            this.tick = state.tick;
+        }
+
+        /**
+         * Квантованный ключ состояния: совпадает у практически одинаковых состояний одного тика
+         */
+        public long getTranspositionKey() {
+            long key = tick;
+            for (long bonusesWord : bonuses) {
+                key = mix(key, bonusesWord);
+            }
+            key = mix(key, tireCount);
+            for (int i = 0; i < getCarCount(); i++) {
+                CState cState = getCarState(i);
+                key = mix(key, cState.wpIndex);
+                key = mix(key, Math.round(cState.x * 2.0));
+                key = mix(key, Math.round(cState.y * 2.0));
+                key = mix(key, Math.round(cState.ax * 1000.0));
+                key = mix(key, Math.round(cState.ay * 1000.0));
+                key = mix(key, Math.round(cState.Vx * 200.0));
+                key = mix(key, Math.round(cState.Vy * 200.0));
+                key = mix(key, Math.round(cState.Va * 100000.0));
+                key = mix(key, Math.round(cState.enginePower * 100.0));
+                key = mix(key, Math.round(cState.wheelTurn * 100.0));
+                key = mix(key, Math.round(cState.durability * 100.0));
+                key = mix(key, cState.nitroChargeCount);
+                key = mix(key, cState.lastNitroUseTickPass);
+                key = mix(key, cState.remainingOiledTicks);
+            }
+            return key;
+        }
+
+        private static long mix(long key, long value) {
+            return key * 0x9E3779B97F4A7C15L + value;
+        }
+
+        public void shiftTick(int ticks) {
+            this.tick -= ticks;
+            super.tick -= ticks;
+            for (int i = 0; i < getCarCount(); i++) {
+                getCarState(i).tick -= ticks;
+            }
+        }
+    }
+
+    /**
+     * Множество long с открытой адресацией (линейное пробирование), без упаковки ключей в Long
+     */
+    public static class LongSet {
+        private long[] keys = new long[1024];
+        private boolean hasZero;
+        private int size;
+
+        /**
+         * @return false, если ключ уже был
+         */
+        public boolean add(long key) {
+            if (key == 0) {
+                if (hasZero)
+                    return false;
+                hasZero = true;
+                return true;
+            }
+
+            int mask = keys.length - 1;
+            int index = hash(key) & mask;
+            while (keys[index] != 0) {
+                if (keys[index] == key)
+                    return false;
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            size++;
+
+            if (2 * size > keys.length)
+                rehash(2 * keys.length);
+            return true;
+        }
+
+        public boolean remove(long key) {
+            if (key == 0) {
+                boolean had = hasZero;
+                hasZero = false;
+                return had;
+            }
+
+            int mask = keys.length - 1;
+            int index = hash(key) & mask;
+            while (keys[index] != key) {
+                if (keys[index] == 0)
+                    return false;
+                index = (index + 1) & mask;
+            }
+
+            //сдвигаем следующие ключи цепочки на освободившееся место, чтобы поиск не обрывался на дыре
+            int free = index;
+            index = (index + 1) & mask;
+            while (keys[index] != 0) {
+                int home = hash(keys[index]) & mask;
+                if (((index - home) & mask) >= ((index - free) & mask)) {
+                    keys[free] = keys[index];
+                    free = index;
+                }
+                index = (index + 1) & mask;
+            }
+            keys[free] = 0;
+            size--;
+            return true;
+        }
+
+        public void clear() {
+            Arrays.fill(keys, 0);
+            hasZero = false;
+            size = 0;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            keys = new long[capacity];
+            size = 0;
+            int mask = capacity - 1;
+            for (long key : oldKeys) {
+                if (key == 0)
+                    continue;
+
+                int index = hash(key) & mask;
+                while (keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                size++;
+            }
+        }
+
+        private static int hash(long key) {
+            int h = (int) (key ^ (key >>> 32));
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Пул состояний для стволов дерева. Объекты переиспользуются между ходами (после reset()),
+     * поэтому состояния, которые должны пережить ход, нужно отвязать от пула (CarNode.detach).
+     */
+    public static class StateArena {
+        private WState[] states = new WState[1024];
+        private int size, used;
+        private WState[] released = new WState[0];
+        private int releasedCount;
+
+        public WState copy(WState state) {
+            if (releasedCount > 0) {
+                WState aState = released[--releasedCount];
+                released[releasedCount] = null;
+                aState.set(state);
+                return aState;
+            }
+
+            if (used < size) {
+                WState aState = states[used++];
+                aState.set(state);
+                return aState;
+            }
+
+            if (size == states.length)
+                states = Arrays.copyOf(states, size * 2);
+
+            WState aState = state.copy();
+            aState.pooled = true;
+            states[size++] = aState;
+            used = size;
+            return aState;
+        }
+
+        /**
+         * Возвращает состояние выкинутой ветки, чтобы использовать его до конца хода
+         */
+        public void release(WState state) {
+            if (releasedCount == released.length)
+                released = Arrays.copyOf(released, Math.max(256, 2 * releasedCount));
+            released[releasedCount++] = state;
+        }
+
+        public void reset() {
+            used = 0;
+            Arrays.fill(released, 0, releasedCount, null);
+            releasedCount = 0;
+        }
     }
 
     public static class CarPathEngine extends CarEngine<CState> {
@@ -993,5 +1407,16 @@ public class CarTracker extends Tracker<CarTracker.WState, CarTracker.CarNode> {
             state.trackLen = trackLen;
             return state;
         }
+
+        @Override
+        public void set(CarState state) {
+            super.set(state);
+            CState cState = (CState) state;
+            this.dist = cState.dist;
+            this.wpIndex = cState.wpIndex;
+            this.tIndex = cState.tIndex;
+            this.tick = cState.tick;
+            this.trackLen = cState.trackLen;
+        }
     }
 }
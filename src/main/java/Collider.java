@@ -2,7 +2,14 @@ public class Collider {
     public static class Collision {
         public double x, y, normalX, normalY, deep;
 
+        public Collision() {
+        }
+
         public Collision(double x, double y, double normalX, double normalY, double deep) {
+            set(x, y, normalX, normalY, deep);
+        }
+
+        public void set(double x, double y, double normalX, double normalY, double deep) {
             this.x = x;
             this.y = y;
             this.normalX = normalX;
@@ -63,67 +70,78 @@ public class Collider {
             this.cRadius2 = cRadius*cRadius;
         }
 
-        public Collision checkBoxCentred(double cBoxX, double cBoxY, double ax, double ay) {
+        /**
+         * Результат пишется в collision, новых объектов не создается
+         */
+        public boolean checkBoxCentred(double cBoxX, double cBoxY, double ax, double ay, Collision collision) {
             double cx = ax * cBoxX + ay * cBoxY;
             double cy = ax * cBoxY - ay * cBoxX;
-            Collision nCollision = checkBoxCentredNormalized(cx, cy);
-            if (nCollision != null) {
-                double newCX = ax * nCollision.x - ay * nCollision.y;
-                double newCY = ay * nCollision.x + ax * nCollision.y;
-                double newNX = ax * nCollision.normalX - ay * nCollision.normalY;
-                double newNY = ay * nCollision.normalX + ax * nCollision.normalY;
-
-                nCollision.x = newCX;
-                nCollision.y = newCY;
-                nCollision.normalX = newNX;
-                nCollision.normalY = newNY;
+            if (checkBoxCentredNormalized(cx, cy, collision)) {
+                double newCX = ax * collision.x - ay * collision.y;
+                double newCY = ay * collision.x + ax * collision.y;
+                double newNX = ax * collision.normalX - ay * collision.normalY;
+                double newNY = ay * collision.normalX + ax * collision.normalY;
+
+                collision.x = newCX;
+                collision.y = newCY;
+                collision.normalX = newNX;
+                collision.normalY = newNY;
+                return true;
             }
 
-            return nCollision;
+            return false;
         }
 
-        public Collision checkBoxCentredNormalized(double cx, double cy) {
+        public boolean checkBoxCentredNormalized(double cx, double cy, Collision collision) {
             if (cx > -wight2) {
                 if (cx < wight2) {
                     if (cy < 0) {
                         double deep = cRadius + height2 + cy;
-                        if (deep > 0)
-                            return new Collision(cx, -height2, 0, 1, deep);
+                        if (deep > 0) {
+                            collision.set(cx, -height2, 0, 1, deep);
+                            return true;
+                        }
                     } else {
                         double deep = cRadius + height2 - cy;
-                        if (deep > 0)
-                            return new Collision(cx, height2, 0, -1, deep);
+                        if (deep > 0) {
+                            collision.set(cx, height2, 0, -1, deep);
+                            return true;
+                        }
                     }
                 } else {
                     if (cy > -height2) {
                         if (cy < height2) {
                             double deep = cRadius + wight2 - cx;
-                            if (deep > 0)
-                                return new Collision(wight2, cy, -1, 0, deep);
+                            if (deep > 0) {
+                                collision.set(wight2, cy, -1, 0, deep);
+                                return true;
+                            }
                         } else {
-                            return collidePoint(cx, cy, wight2, height2);
+                            return collidePoint(cx, cy, wight2, height2, collision);
                         }
                     } else {
-                        return collidePoint(cx, cy, wight2, -height2);
+                        return collidePoint(cx, cy, wight2, -height2, collision);
                     }
                 }
             } else {
                 if (cy > -height2) {
                     if (cy < height2) {
                         double deep = cRadius + wight2 + cx;
-                        if (deep > 0)
-                            return new Collision(-wight2, cy, 1, 0, deep);
+                        if (deep > 0) {
+                            collision.set(-wight2, cy, 1, 0, deep);
+                            return true;
+                        }
                     } else {
-                        return collidePoint(cx, cy, -wight2, height2);
+                        return collidePoint(cx, cy, -wight2, height2, collision);
                     }
                 } else {
-                    return collidePoint(cx, cy, -wight2, -height2);
+                    return collidePoint(cx, cy, -wight2, -height2, collision);
                 }
             }
-            return null;
+            return false;
         }
 
-        private Collision collidePoint(double cx, double cy, double x, double y) {
+        private boolean collidePoint(double cx, double cy, double x, double y, Collision collision) {
             double nx = x - cx;
             double ny = y - cy;
             double r2 = nx*nx + ny*ny;
@@ -131,10 +149,11 @@ public class Collider {
                 double r = Math.sqrt(r2);
                 nx /= r;
                 ny /= r;
-                return new Collision(x, y, nx, ny, cRadius - r);
+                collision.set(x, y, nx, ny, cRadius - r);
+                return true;
             }
 
-            return null;
+            return false;
         }
     }
 }
@@ -1,36 +1,60 @@
 import model.*;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Driver {
     public static final int MIN_STATE_COUNT = 5000;
+    //поиск в findBestPath ограничен временем, число состояний - только защита памяти
+    public static final int MAX_STATE_COUNT = 24000;
+    public static final int SEARCH_THREADS = Runtime.getRuntime().availableProcessors();
+    public static boolean PARALLEL_ROOT_SEARCH = SEARCH_THREADS > 2;
+    public static volatile boolean CONCURRENT_TEAM_MOVES;
+    //грубые шаги физики вдали от бортов, отклонение проверяется в TestEngine
+    public static boolean ADAPTIVE_SUB_STEPS = true;
+    //спуск по дереву через UCB вместо жадного выбора по оценке
+    public static boolean UCB_TREE_STRATEGY = true;
+    //рост дерева через глобальную очередь узлов (Tracker.trackFrontier) вместо спуска от корня
+    public static boolean FRONTIER_SEARCH = false;
+    //при нехватке памяти выкидывать худшие поддеревья и продолжать поиск вместо остановки
+    public static boolean EVICT_ON_MEMORY_LIMIT = true;
+
+    private static ForkJoinPool searchPool;
 
     public Driver teammateDriver;
 
     private ShiftedCarNode bestCarNode;
     private TileType[][] bestTileTypes;
+    private Bonus[] bestBonuses;
     private Map<Long, OilSlick> bestOilSlicks = new HashMap<>();
     private boolean bestByBack;
+    private volatile TrackSnapshot bestTrackSnapshot;
+    private final CarTracker.StateArena stateArena = new CarTracker.StateArena();
+    private final List<CarTracker.StateArena> childStateArenas = new ArrayList<>();
 
-    public CarNodeI findBestPath(Car self, GameData gameData, int[][] path, int nextWpIndex) {
+    public CarNodeI findBestPath(final Car self, final GameData gameData, final int[][] path, final int nextWpIndex) {
         final int toUnfreezeTicks = gameData.game.getInitialFreezeDurationTicks() - gameData.world.getTick();
-        CarTracker.CarPathEngine carEngine = new CarTracker.CarPathEngine(self, gameData, path, (short)nextWpIndex) {
+        final OilSlick[] oilSlicks = bestOilSlicks.values().toArray(new OilSlick[bestOilSlicks.size()]);
+        final CarTracker.WState[] teammateBestPath = getTeammateBestPath(gameData.world.getTick());
+        EngineFactory engineFactory = new EngineFactory() {
             @Override
-            public void perStepPre() {
-                super.perStepPre();
-
-                if (getState().tick < toUnfreezeTicks) {
-                    this.Fx = 0;
-                    this.Fy = 0;
-                }
+            public CarTracker.WEngine createEngine() {
+                return Driver.createEngine(self, gameData, path, nextWpIndex, toUnfreezeTicks, oilSlicks, teammateBestPath);
             }
         };
 
-        CarTracker.WEngine engine = new CarTracker.WEngine(new CarTracker.CarPathEngine[] {carEngine}, gameData, bestOilSlicks.values().toArray(new OilSlick[bestOilSlicks.size()]), getTeammateBestPath());
-        engine.setState(new CarTracker.WState(new CarTracker.CState[] {carEngine.getState()}, gameData, gameData.world.getProjectiles()));
+        CarTracker.WEngine engine = engineFactory.createEngine();
         CarTracker.WState startState = engine.getState().copy();
 
         Comparator<CarNodeI> nodesComparator = new CarNodeQualityComparator();
+        stateArena.reset();
+        for (CarTracker.StateArena arena : childStateArenas) {
+            arena.reset();
+        }
 
         if (bestCarNode != null) {
             if (refreshSurroundings(gameData) || !bestCarNode.cut(startState.copy())) {
@@ -47,14 +71,24 @@ public class Driver {
 //        engine.setResolveBorderCollisions(true);
 //        CarTracker.CarNode.TreeStrategy treeStrategy = new CarTracker.CarNode.DistTreeStrategy();
         engine.setResolveBorderCollisions(false);
-        CarTracker.CarNode.TreeStrategy treeStrategy = new CarTracker.CarNode.StateTreeStrategy();
+        CarTracker.CarNode.TreeStrategy treeStrategy = UCB_TREE_STRATEGY ? new CarTracker.CarNode.UcbTreeStrategy() : new CarTracker.CarNode.StateTreeStrategy();
 
 
-        int sCount = getTimeLimitedStateCount(gameData.world, 12000);
-//        System.out.println(gameData.world.getTick() + ": " + sCount);
+        double timeScale = getTimeScale(gameData.world);
+        boolean fullSearch = 12000 * timeScale > MIN_STATE_COUNT;
+        SearchTimeBudget timeBudget = new SearchTimeBudget((long) (ResourcesController.getCarTickTime() * timeScale));
+        int sCount = MAX_STATE_COUNT;
 
         boolean allowNitro = toUnfreezeTicks <= 0 && bestCarNode != null && bestCarNode.getMaxDist() > 7;
-        CarTracker.CarNode bNode = buildBestPath(450, Math.max(MIN_STATE_COUNT, sCount), treeStrategy, startState.copy(), gameData, nodesComparator, engine, 0.7, false, allowNitro);
+
+        //дерево прошлого тика продолжает расти как один из потомков корня
+        CarTracker.CarNode seed = null;
+        if (bestCarNode != null && !bestByBack && bestCarNode.getStateCount() <= sCount)
+            seed = bestCarNode.node;
+
+        //веса поисков ниже - их ожидаемая польза, по ним делится время хода
+        double restWeight = bestByBack ? (fullSearch ? 1.4 : 0.9) : (fullSearch ? 1.75 : 0);
+        CarTracker.CarNode bNode = searchBestPath(450, sCount, timeBudget.next(1.0, restWeight), treeStrategy, startState.copy(), gameData, nodesComparator, engine, engineFactory, 0.7, false, allowNitro, seed);
         if (bestCarNode == null || bestCarNode.nodesComparator.compare(bestCarNode, bNode) < 0) {
             bestCarNode = new ShiftedCarNode(bNode, startState.copy(), nodesComparator);
             bestByBack = false;
@@ -68,23 +102,23 @@ public class Driver {
                 }
             };
 
-            CarTracker.CarNode bNode1 = buildBestPath(300, Math.max(MIN_STATE_COUNT, (int) (sCount * 0.9)), treeStrategy, startState.copy(), gameData, nodesComparator, engine, 0.5, true, false);
+            CarTracker.CarNode bNode1 = searchBestPath(300, (int) (sCount * 0.9), timeBudget.next(0.9, fullSearch ? 0.5 : 0), treeStrategy, startState.copy(), gameData, nodesComparator, engine, engineFactory, 0.5, true, false, null);
             if (nodesComparator.compare(bestCarNode, bNode1) < 0) {
                 bestCarNode = new ShiftedCarNode(bNode1, startState.copy(), nodesComparator);
                 bestByBack = true;
             }
 
-            if (sCount > MIN_STATE_COUNT) {
+            if (fullSearch) {
                 engine.setResolveBorderCollisions(true);
-                bNode1 = buildBestPath(200, (int) (sCount * 0.5), treeStrategy, startState.copy(), gameData, nodesComparator, engine, 2.0, true, false);
+                bNode1 = searchBestPath(200, (int) (sCount * 0.5), timeBudget.next(0.5, 0), treeStrategy, startState.copy(), gameData, nodesComparator, engine, engineFactory, 2.0, true, false, null);
                 if (nodesComparator.compare(bestCarNode, bNode1) < 0) {
                     bestCarNode = new ShiftedCarNode(bNode1, startState.copy(), nodesComparator);
                     bestByBack = true;
                 }
             }
         } else {
-            if (sCount > MIN_STATE_COUNT) {
-                bNode = buildBestPath(450, sCount, treeStrategy, startState.copy(), gameData, nodesComparator, engine, 2.0, false, allowNitro);
+            if (fullSearch) {
+                bNode = searchBestPath(450, sCount, timeBudget.next(1.0, 0.75), treeStrategy, startState.copy(), gameData, nodesComparator, engine, engineFactory, 2.0, false, allowNitro, null);
                 if (nodesComparator.compare(bestCarNode, bNode) < 0) {
                     bestCarNode = new ShiftedCarNode(bNode, startState.copy(), nodesComparator);
                     bestByBack = false;
@@ -92,7 +126,7 @@ public class Driver {
 
                 engine.setResolveBorderCollisions(true);
                 treeStrategy = new CarTracker.CarNode.DistTreeStrategy();
-                CarTracker.CarNode bNode1 = buildBestPath(300, (int) (sCount * 0.75), treeStrategy, startState.copy(), gameData, nodesComparator, engine, 0.7, false, allowNitro);
+                CarTracker.CarNode bNode1 = searchBestPath(300, (int) (sCount * 0.75), timeBudget.next(0.75, 0), treeStrategy, startState.copy(), gameData, nodesComparator, engine, engineFactory, 0.7, false, allowNitro, null);
                 if (nodesComparator.compare(bestCarNode, bNode1) < 0) {
                     bestCarNode = new ShiftedCarNode(bNode1, startState.copy(), nodesComparator);
                     bestByBack = false;
@@ -107,29 +141,154 @@ public class Driver {
 //        }
 //        VisualClient.getVisualClient().endPost();
 
+        bestCarNode.node.detach();
+        publishBestTrack(gameData.world.getTick());
+
         this.bestTileTypes = gameData.tileTypes;
+        this.bestBonuses = gameData.bonuses;
         return bestCarNode;
     }
 
+    private static CarTracker.WEngine createEngine(Car self, GameData gameData, int[][] path, int nextWpIndex, final int toUnfreezeTicks, OilSlick[] oilSlicks, CarTracker.WState[] teammateBestPath) {
+        CarTracker.CarPathEngine carEngine = new CarTracker.CarPathEngine(self, gameData, path, (short)nextWpIndex) {
+            @Override
+            public void perStepPre() {
+                super.perStepPre();
+
+                if (getState().tick < toUnfreezeTicks) {
+                    this.Fx = 0;
+                    this.Fy = 0;
+                }
+            }
+        };
+
+        CarTracker.WEngine engine = new CarTracker.WEngine(new CarTracker.CarPathEngine[] {carEngine}, gameData, oilSlicks, teammateBestPath);
+        engine.setAdaptiveSubSteps(ADAPTIVE_SUB_STEPS);
+        engine.setState(new CarTracker.WState(new CarTracker.CState[] {carEngine.getState()}, gameData, gameData.world.getProjectiles()));
+        return engine;
+    }
+
+    private CarTracker.CarNode searchBestPath(int maxLen, int sCount, long time, CarTracker.CarNode.TreeStrategy treeStrategy, CarTracker.WState startState, GameData data, Comparator<CarNodeI> nodesComparator, CarTracker.WEngine engine, EngineFactory engineFactory, double minBreakSpeed, boolean allowBack, boolean allowNitro, CarTracker.CarNode seed) {
+        if (!PARALLEL_ROOT_SEARCH)
+            return buildBestPath(maxLen, sCount, time, treeStrategy, startState, data, nodesComparator, engine, minBreakSpeed, allowBack, allowNitro, stateArena, seed);
+
+        long startTime = System.nanoTime();
+
+        engine.setState(startState);
+        CarTracker carTracker = new CarTracker(treeStrategy, engine, maxLen, minBreakSpeed, allowBack, allowNitro, stateArena);
+        CarTracker.CarNode root = carTracker.buildRoot(data.game, allowBack, allowNitro);
+        int seedStateCount = 0, seedBranchCount = 0;
+        if (seed != null) {
+            int branchCount = root.branchCount;
+            addSeed(root, seed);
+            seedStateCount = seed.getStateCount();
+            seedBranchCount = root.branchCount - branchCount;
+        }
+
+        //бюджет рассчитан на один поток, остальные потоки получают столько же
+        int threadScale = Math.max(1, Math.min(SEARCH_THREADS, root.children.size()));
+        SearchBudget budget = new SearchBudget(sCount * threadScale, threadScale * sCount / 20, threadScale * 2*sCount/100, root.getStateCount() - seedStateCount, root.branchCount - seedBranchCount, startTime, time, ResourcesController.getMoveStartRealTime(), root.children.size(), seedStateCount);
+
+        //каждое поддерево корня независимо, поэтому строится в своем потоке со своим движком
+        final List<RootChildSearch> tasks = new ArrayList<>(root.children.size());
+        for (int i = 0; i < root.children.size(); i++) {
+            if (childStateArenas.size() <= i)
+                childStateArenas.add(new CarTracker.StateArena());
+
+            CarTracker.WEngine childEngine = engineFactory.createEngine();
+            childEngine.setResolveBorderCollisions(engine.isResolveBorderCollisions());
+            childEngine.setState(startState.copy());
+            CarTracker childTracker = new CarTracker(treeStrategy, childEngine, maxLen, minBreakSpeed, allowBack, allowNitro, childStateArenas.get(i));
+            //очередь заполняется здесь: оценка потомка корня смотрит на его братьев, которых растят другие потоки
+            if (FRONTIER_SEARCH)
+                childTracker.startFrontier(root.children.get(i), root);
+            tasks.add(new RootChildSearch(childTracker, root.children.get(i), budget, sCount > MIN_STATE_COUNT, FRONTIER_SEARCH));
+        }
+
+        getSearchPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+
+        long workerAllocatedBytes = 0;
+        for (RootChildSearch task : tasks) {
+            workerAllocatedBytes += task.allocatedBytes;
+        }
+        ResourcesController.recordWorkerAllocation(workerAllocatedBytes);
+        ResourcesController.recordSearch(System.nanoTime() - startTime, budget.stateCount.get(), budget.branchCount.get());
+
+        root.stateCount = 0;
+        for (CarTracker.CarNode child : root.children) {
+            root.stateCount += child.getStateCount();
+        }
+        root.update(false);
+        if (seed != null)
+            refreshSeed(root, seed);
+
+        CarTracker.CarNode bNode = null;
+        for (CarTracker.CarNode child : root.children) {
+            if (bNode == null || nodesComparator.compare(bNode, child) <= 0) {
+                bNode = child;
+            }
+        }
+
+        return bNode;
+    }
+
+    private static synchronized ForkJoinPool getSearchPool() {
+        if (searchPool == null)
+            searchPool = new ForkJoinPool(SEARCH_THREADS);
+
+        return searchPool;
+    }
+
     public ShiftedCarNode getBestCarNode() {
         return bestCarNode;
     }
 
-    public CarTracker.WState[] getTeammateBestPath() {
-        if (teammateDriver.bestCarNode != null)
-            return getBestTrack(teammateDriver.bestCarNode);
+    /**
+     * Лучший трек напарника, сдвинутый к тику tick.
+     * При одновременных ходах берётся снимок с прошлого тика, чтобы не зависеть от того, кто из водителей успел раньше
+     */
+    public CarTracker.WState[] getTeammateBestPath(int tick) {
+        TrackSnapshot snapshot = teammateDriver.bestTrackSnapshot;
+        if (snapshot != null && CONCURRENT_TEAM_MOVES && snapshot.tick >= tick)
+            snapshot = snapshot.prev;
+
+        if (snapshot == null)
+            return new CarTracker.WState[] {};
+
+        int shift = tick - snapshot.tick;
+        if (shift <= 0)
+            return snapshot.track;
+        if (shift >= snapshot.track.length)
+            return new CarTracker.WState[] {};
+
+        return Arrays.copyOfRange(snapshot.track, shift, snapshot.track.length);
+    }
+
+    private void publishBestTrack(int tick) {
+        TrackSnapshot prev = bestTrackSnapshot;
+        if (prev != null)
+            prev = new TrackSnapshot(prev.tick, prev.track, null);
 
-        return new CarTracker.WState[] {};
+        bestTrackSnapshot = new TrackSnapshot(tick, getBestTrack(bestCarNode), prev);
     }
 
+    /**
+     * Копии состояний лучшего трека: дерево продолжает расти и сдвигать тики на следующих ходах,
+     * а опубликованный трек читает напарник из своего потока
+     */
     public static CarTracker.WState[] getBestTrack(ShiftedCarNode bestNode) {
         List<CarTracker.WState> bestTrack = new ArrayList<>(300);
-        bestTrack.add(bestNode.prevState);
+        bestTrack.add(bestNode.prevState.copy());
 
         CarTracker.CarNode node = bestNode.node;
         while (node != null) {
             for (int i=0;i<node.trunk.length;i++) {
-                bestTrack.add(node.trunk.get(i));
+                bestTrack.add(node.trunk.get(i).copy());
             }
 
             if (node.children == null || node.children.size() == 0)
@@ -146,6 +305,10 @@ public class Driver {
     private boolean refreshSurroundings(GameData gameData) {
         boolean changed = false;
 
+        //маска бонусов в состояниях индексируется по GameData.bonuses, при взятии или появлении бонуса индексы сдвигаются
+        if (!isSameBonusIds(gameData.bonuses, bestBonuses))
+            return true;
+
         Boolean nodeResult = nodeSurroundingChanged(bestCarNode.node, gameData);
         if (nodeResult != null) {
             if (nodeResult)
@@ -156,7 +319,8 @@ public class Driver {
 
 
         Map<Long, OilSlick> newSlicks = new HashMap<>();
-        for (OilSlick slick : gameData.world.getOilSlicks()) {
+        for (int i = 0; i < gameData.world.getOilSlickCount(); i++) {
+            OilSlick slick = gameData.world.getOilSlick(i);
             newSlicks.put(slick.getId(), slick);
             OilSlick oldSlick = this.bestOilSlicks.remove(slick.getId());
             if (oldSlick == null || (oldSlick.getRemainingLifetime() - 1) != slick.getRemainingLifetime()) {
@@ -179,6 +343,19 @@ public class Driver {
         return changed;
     }
 
+    private static boolean isSameBonusIds(Bonus[] bonuses1, Bonus[] bonuses2) {
+        if (bonuses1 == bonuses2)
+            return true;
+        if (bonuses1 == null || bonuses2 == null || bonuses1.length != bonuses2.length)
+            return false;
+
+        for (int i = 0; i < bonuses1.length; i++) {
+            if (bonuses1[i].getId() != bonuses2[i].getId())
+                return false;
+        }
+        return true;
+    }
+
     private Boolean nodeSurroundingChanged(CarTracker.CarNode node, GameData gameData) {
         for (int i = 0; i < node.trunk.length; i++) {
             CarTracker.WState state = node.trunk.get(i);
@@ -229,9 +406,17 @@ public class Driver {
     }
 
     public static int getTimeLimitedStateCount(World world, int baseCount) {
+        return (int)(baseCount * getTimeScale(world));
+    }
+
+    /**
+     * Доля от полного поиска, которую можно себе позволить при текущем расходе игрового времени, от 0 до 1
+     */
+    public static double getTimeScale(World world) {
         int tCars = 0;
         int tActiveCars = 0;
-        for (Car car : world.getCars()) {
+        for (int i = 0; i < world.getCarCount(); i++) {
+            Car car = world.getCar(i);
             if (car.isTeammate()) {
                 tCars++;
                 if (!car.isFinishedTrack()) {
@@ -243,33 +428,74 @@ public class Driver {
         double scale = Math.min(ResourcesController.getGameRealTimeScale(world), ResourcesController.getGameCPUTimeScale(world));
         scale *= carScale;
 
-        scale = 2.0/(1.0 + Math.exp(-5*scale)) - 1.0;
-
-        return (int)(baseCount * scale);
+        return 2.0/(1.0 + Math.exp(-5*scale)) - 1.0;
     }
 
     public static CarTracker.CarNode buildBestPath(int maxLen, int sCount, CarTracker.CarNode.TreeStrategy treeStrategy, CarTracker.WState startState, GameData data, Comparator<CarNodeI> nodesComparator, CarTracker.WEngine engine, double minBreakSpeed, boolean allowBack, boolean allowNitro) {
+        return buildBestPath(maxLen, sCount, treeStrategy, startState, data, nodesComparator, engine, minBreakSpeed, allowBack, allowNitro, null);
+    }
+
+    public static CarTracker.CarNode buildBestPath(int maxLen, int sCount, CarTracker.CarNode.TreeStrategy treeStrategy, CarTracker.WState startState, GameData data, Comparator<CarNodeI> nodesComparator, CarTracker.WEngine engine, double minBreakSpeed, boolean allowBack, boolean allowNitro, CarTracker.StateArena arena) {
+        return buildBestPath(maxLen, sCount, Long.MAX_VALUE, treeStrategy, startState, data, nodesComparator, engine, minBreakSpeed, allowBack, allowNitro, arena, null);
+    }
+
+    /**
+     * @param seed поддерево прошлого хода, уже приведенное к текущему состоянию (может быть null).
+     *             Добавляется к потомкам корня и доращивается вместе с ними, в бюджет не входит
+     * @param time время на поиск, нс. Когда оно выходит, возвращается лучший из уже найденных узлов
+     */
+    public static CarTracker.CarNode buildBestPath(int maxLen, int sCount, long time, CarTracker.CarNode.TreeStrategy treeStrategy, CarTracker.WState startState, GameData data, Comparator<CarNodeI> nodesComparator, CarTracker.WEngine engine, double minBreakSpeed, boolean allowBack, boolean allowNitro, CarTracker.StateArena arena, CarTracker.CarNode seed) {
+        long startTime = System.nanoTime();
         engine.setState(startState);
-        CarTracker carTracker = new CarTracker(treeStrategy, engine, maxLen, minBreakSpeed, allowBack, allowNitro);
+        CarTracker carTracker = new CarTracker(treeStrategy, engine, maxLen, minBreakSpeed, allowBack, allowNitro, arena);
         CarTracker.CarNode root = carTracker.buildRoot(data.game, allowBack, allowNitro);
+        int seedStateCount = 0, seedBranchCount = 0;
+        if (seed != null) {
+            int branchCount = root.branchCount;
+            addSeed(root, seed);
+            seedStateCount = seed.getStateCount();
+            seedBranchCount = root.branchCount - branchCount;
+        }
 
         int bCount = sCount / 20;
 
+        boolean frontier = FRONTIER_SEARCH;
+        if (frontier)
+            carTracker.startFrontier(root);
+
+        //после нехватки памяти дерево держится в пределах stateLimit состояний
+        StateLimit stateLimit = new StateLimit();
+
         int count = 0;
         for (int i=0;i<(2*sCount/100);i++) {
-            if (root.getStateCount() > sCount || root.branchCount > bCount)
+            if (root.getStateCount() - seedStateCount > sCount || root.branchCount - seedBranchCount > bCount)
                 break;
 
-            if (ResourcesController.isMoveTimeThresholdExceeded()) {
+            if (System.nanoTime() - startTime > time || ResourcesController.isMoveTimeThresholdExceeded()) {
                 break;
             }
             if (sCount > MIN_STATE_COUNT && (count% 10 == 0) && ResourcesController.isMemoryThresholdExceeded()) {
-                break;
+                if (!EVICT_ON_MEMORY_LIMIT || !stateLimit.shrink(root.getStateCount()))
+                    break;
+            }
+            int limit = stateLimit.limit;
+            if (root.getStateCount() > limit) {
+                carTracker.evict(root, limit * 9 / 10);
             }
 
             count++;
-            carTracker.track(root, 0);
+            if (frontier) {
+                if (!carTracker.trackFrontier())
+                    break;
+            } else {
+                carTracker.track(root, 0);
+            }
         }
+        if (frontier)
+            carTracker.finishFrontier();
+        if (seed != null)
+            refreshSeed(root, seed);
+        ResourcesController.recordSearch(System.nanoTime() - startTime, root.getStateCount() - seedStateCount, root.branchCount - seedBranchCount);
 
 //        VisualClient.getVisualClient().printTracks(root, startState.getCarState(0), null, nodesComparator);
 
@@ -283,6 +509,176 @@ public class Driver {
         return bNode;
     }
 
+    private static void addSeed(CarTracker.CarNode root, CarTracker.CarNode seed) {
+        //у поддерева с пустым стволом дети начинаются с текущего состояния, как и дети корня
+        if (seed.trunk.length == 0)
+            root.children.addAll(seed.children);
+        else
+            root.children.add(seed);
+        root.stateCount += seed.getStateCount();
+        root.update(false);
+    }
+
+    /**
+     * Поддерево с пустым стволом растет через детей корня, его оценки пересчитываются после поиска.
+     * Выкинутые из корня дети выкидываются и из него
+     */
+    private static void refreshSeed(CarTracker.CarNode root, CarTracker.CarNode seed) {
+        if (seed.trunk.length != 0)
+            return;
+
+        seed.children.retainAll(root.children);
+        seed.stateCount = 0;
+        for (CarTracker.CarNode child : seed.children) {
+            seed.stateCount += child.getStateCount();
+        }
+        seed.update(false);
+    }
+
+    public interface EngineFactory {
+        CarTracker.WEngine createEngine();
+    }
+
+    private static class SearchBudget {
+        private final int sCount, bCount;
+        private final AtomicInteger stateCount, branchCount, trackCount;
+        private final long startTime, time;
+        private final long moveStartRealTime;
+        //после нехватки памяти каждое поддерево корня держится в равной доле общего предела
+        private final StateLimit stateLimit = new StateLimit();
+        private final int taskCount;
+        private final int seedStateCount;
+
+        private SearchBudget(int sCount, int bCount, int trackCount, int stateCount, int branchCount, long startTime, long time, long moveStartRealTime, int taskCount, int seedStateCount) {
+            this.sCount = sCount;
+            this.bCount = bCount;
+            this.stateCount = new AtomicInteger(stateCount);
+            this.branchCount = new AtomicInteger(branchCount);
+            this.trackCount = new AtomicInteger(trackCount);
+            this.startTime = startTime;
+            this.time = time;
+            this.moveStartRealTime = moveStartRealTime;
+            this.taskCount = Math.max(1, taskCount);
+            this.seedStateCount = seedStateCount;
+        }
+
+        /**
+         * Сколько состояний во всем дереве вместе с подсаженным деревом прошлого хода
+         */
+        private int getTreeStateCount() {
+            return seedStateCount + stateCount.get();
+        }
+
+        private boolean isExceeded() {
+            return stateCount.get() > sCount || branchCount.get() > bCount || System.nanoTime() - startTime > time;
+        }
+    }
+
+    /**
+     * Предел числа состояний дерева после нехватки памяти. При параллельном поиске общий для всех потоков
+     */
+    private static class StateLimit {
+        private volatile int limit = Integer.MAX_VALUE;
+        private long gcCount;
+
+        /**
+         * Уменьшает предел при нехватке памяти. До сборки мусора выкинутые поддеревья еще занимают память,
+         * поэтому повторно предел уменьшается, только если сборка уже была
+         * @param stateCount сколько состояний в дереве сейчас
+         * @return false, если предел меньше MIN_STATE_COUNT и поиск пора остановить
+         */
+        private synchronized boolean shrink(int stateCount) {
+            long gcCount = ResourcesController.getGcCount();
+            if (limit == Integer.MAX_VALUE || gcCount != this.gcCount) {
+                limit = Math.min(limit, stateCount) * 3 / 4;
+                this.gcCount = gcCount;
+            }
+            return limit >= MIN_STATE_COUNT;
+        }
+    }
+
+    /**
+     * Время хода на поиск. Делится между вызовами buildBestPath по весам - ожидаемой пользе каждого поиска,
+     * время, не потраченное одним поиском, достается следующим
+     */
+    private static class SearchTimeBudget {
+        private final long deadline;
+
+        private SearchTimeBudget(long time) {
+            this.deadline = System.nanoTime() + time;
+        }
+
+        /**
+         * @param weight вес очередного поиска
+         * @param restWeight суммарный вес поисков, которые ожидаются после него
+         * @return время на очередной поиск, нс
+         */
+        private long next(double weight, double restWeight) {
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            return (long) (remaining * weight / (weight + restWeight));
+        }
+    }
+
+    private static class RootChildSearch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CarTracker carTracker;
+        private final CarTracker.CarNode node;
+        private final SearchBudget budget;
+        private final boolean checkMemory;
+        private final boolean frontier;
+        //память, выделенная потоком ForkJoinPool на этот поиск (для телеметрии)
+        private long allocatedBytes;
+
+        private RootChildSearch(CarTracker carTracker, CarTracker.CarNode node, SearchBudget budget, boolean checkMemory, boolean frontier) {
+            this.carTracker = carTracker;
+            this.node = node;
+            this.frontier = frontier;
+            this.budget = budget;
+            this.checkMemory = checkMemory;
+        }
+
+        @Override
+        protected void compute() {
+            //поток хода, если сам выполнит задачу, учитывается в телеметрии и так
+            long startAllocatedBytes = Thread.currentThread() instanceof ForkJoinWorkerThread ? ResourcesController.getThreadAllocatedBytes() : -1;
+            search();
+            if (frontier)
+                carTracker.finishFrontier();
+            if (startAllocatedBytes >= 0)
+                allocatedBytes = ResourcesController.getThreadAllocatedBytes() - startAllocatedBytes;
+        }
+
+        private void search() {
+            int count = 0;
+            while (budget.trackCount.decrementAndGet() >= 0) {
+                if (budget.isExceeded())
+                    break;
+
+                if (ResourcesController.isMoveTimeThresholdExceeded(budget.moveStartRealTime)) {
+                    break;
+                }
+                if (checkMemory && (count% 10 == 0) && ResourcesController.isMemoryThresholdExceeded()) {
+                    if (!EVICT_ON_MEMORY_LIMIT || !budget.stateLimit.shrink(budget.getTreeStateCount()))
+                        break;
+                }
+
+                count++;
+                int oldStateCount = node.getStateCount();
+                int oldBranchCount = node.branchCount;
+                int limit = budget.stateLimit.limit / budget.taskCount;
+                if (node.getStateCount() > limit)
+                    carTracker.evict(node, limit * 9 / 10);
+                boolean tracked = frontier ? carTracker.trackFrontier() : carTracker.track(node, 0);
+
+                budget.stateCount.addAndGet(node.getStateCount() - oldStateCount);
+                budget.branchCount.addAndGet(node.branchCount - oldBranchCount);
+                if (!tracked)
+                    break;
+            }
+        }
+    }
+
     public static class CarNodeQualityComparator implements Comparator<CarNodeI> {
         @Override
         public int compare(CarNodeI n1, CarNodeI n2) {
@@ -290,9 +686,20 @@ public class Driver {
         }
     }
 
+    private static class TrackSnapshot {
+        private final int tick;
+        private final CarTracker.WState[] track;
+        private final TrackSnapshot prev;
+
+        private TrackSnapshot(int tick, CarTracker.WState[] track, TrackSnapshot prev) {
+            this.tick = tick;
+            this.track = track;
+            this.prev = prev;
+        }
+    }
+
     public static class ShiftedCarNode implements CarNodeI {
         private CarTracker.CarNode node;
-        private int tickPassedTrunk;
         private CarTracker.WState prevState;
         private Comparator<CarNodeI> nodesComparator;
 
@@ -304,28 +711,27 @@ public class Driver {
 
         public boolean cut(CarTracker.WState currentState) {
             while (node.trunk.length == 0) {
-                if (node.children == null)
+                if (node.children == null || node.children.isEmpty())
                     return false;
 
                 node = Collections.max(node.children, nodesComparator);
-                tickPassedTrunk = 0;
             }
 
             CarTracker.WState pState = node.trunk.get(0);
             if (pState.nearEquals(currentState, 1.0E-8)) {
-                if (node.trunk.length == 1) {
-                    if (node.children == null)
-                        return false;
-
-                    node = Collections.max(node.children, nodesComparator);
-                    tickPassedTrunk = 0;
-                } else {
-                    node.trunk = new Tracker.ArrayView<>(node.trunk, 1);
-                    node.prevState = pState;
-                    node.update(true);
-                    tickPassedTrunk++;
-                }
+                if (node.trunk.length == 1 && node.children == null)
+                    return false;
 
+                //при пустом стволе узел становится корнем: все его дети начинаются с достигнутого состояния
+                node.trunk = new Tracker.ArrayView<>(node.trunk, 1);
+                node.prevState = pState;
+                node.stateCount--;
+                if (node.breakStopTick != Integer.MAX_VALUE)
+                    node.breakStopTick--;
+                node.update(true);
+
+                //тики поддерева отсчитываются от хода, на котором оно построено
+                node.shiftTicks(pState.tick);
                 prevState = pState;
                 return true;
             }
@@ -333,29 +739,41 @@ public class Driver {
             return false;
         }
 
+        /**
+         * Узел, чье управление применяется на этом ходу: у узла с пустым стволом - лучший из детей
+         */
+        private CarTracker.CarNode getMoveNode() {
+            CarTracker.CarNode moveNode = node;
+            while (moveNode.trunk.length == 0 && moveNode.children != null && !moveNode.children.isEmpty()) {
+                moveNode = Collections.max(moveNode.children, nodesComparator);
+            }
+            return moveNode;
+        }
+
         @Override
         public double getEnginePower() {
-            return node.getEnginePower();
+            return getMoveNode().getEnginePower();
         }
 
         @Override
         public double getWheelTurn() {
-            return node.getWheelTurn();
+            return getMoveNode().getWheelTurn();
         }
 
         @Override
         public boolean isBreakPedal() {
-            return node.breakStopTick > tickPassedTrunk && node.isBreakPedal();
+            CarTracker.CarNode moveNode = getMoveNode();
+            return moveNode.breakStopTick > 0 && moveNode.isBreakPedal();
         }
 
         @Override
         public boolean isUseNitro() {
-            return node.isUseNitro();
+            return getMoveNode().isUseNitro();
         }
 
         @Override
         public int getStateCount() {
-            return node.getStateCount() - tickPassedTrunk;
+            return node.getStateCount();
         }
 
         @Override
@@ -3,21 +3,36 @@ import model.*;
 import java.util.*;
 
 public class GameData {
+    private static final Map<TileType, Util.TileInfo> TILE_TYPE_INFO = createTileTypeInfo();
+    private static final TileType[] TYPE_BY_BORDERS = createTypeByBorders();
+
     public final Car self;
     public final World world;
     public final Game game;
     public final Move move;
-    private final Map<Long, UnitState.CarState> prevStates;
+    private final PrevStates prevStates;
 
     public final double tSizeInv;
 
+    private final TileType[][] worldTileTypes;
     public final TileType[][] tileTypes;
     public final Map<TileType, Util.TileInfo> tileTypeInfo;
     public final Borders borders;
 
+    private final Bonus[] worldBonuses;
     public final Bonus[] bonuses;
+    //траектории снарядов этого хода, общие для всех состояний поиска
+    private final Map<Projectile, WorldEngine.ProjectileTrack> projectileTracks = new IdentityHashMap<>();
+
+    public GameData(Car self, World world, Game game, Move move, PrevStates prevStates) {
+        this(self, world, game, move, prevStates, null);
+    }
 
-    public GameData(Car self, World world, Game game, Move move, Map<Long, UnitState.CarState> prevStates) {
+    /**
+     * @param prevData данные прошлого хода (может быть null). Если туман не открыл новых тайлов,
+     *                 типы тайлов берутся из них без повторного вывода, Borders перестраивается только там, где карта изменилась
+     */
+    public GameData(Car self, World world, Game game, Move move, PrevStates prevStates, GameData prevData) {
         this.self = self;
         this.world = world;
         this.game = game;
@@ -25,7 +40,77 @@ public class GameData {
         this.prevStates = prevStates;
 
         this.tSizeInv = 1.0 / game.getTrackTileSize();
+        this.tileTypeInfo = TILE_TYPE_INFO;
+
+        if (prevData != null && isSameTiles(world, prevData.worldTileTypes)) {
+            //сравнение без копирования: в установившемся режиме тайлы мира не копируются вовсе
+            this.worldTileTypes = prevData.worldTileTypes;
+            this.tileTypes = prevData.tileTypes;
+        } else {
+            this.worldTileTypes = world.getTilesXY();
+            TileType[][] tTypes = inferTileTypes(this.worldTileTypes);
+            if (prevData != null && Arrays.deepEquals(tTypes, prevData.tileTypes)) {
+                this.tileTypes = prevData.tileTypes;
+            } else {
+                this.tileTypes = tTypes;
+            }
+        }
+
+        if (prevData != null && isSameBonuses(world, prevData.worldBonuses)) {
+            //клиент переиспользует неизменившиеся бонусы, тогда и сортировать заново нечего
+            this.worldBonuses = prevData.worldBonuses;
+            bonuses = prevData.bonuses;
+        } else {
+            this.worldBonuses = world.getBonuses();
+            Bonus[] bArray = Arrays.copyOf(this.worldBonuses, this.worldBonuses.length);
+            Arrays.sort(bArray, new Comparator<Bonus>() {
+                @Override
+                public int compare(Bonus b1, Bonus b2) {
+                    return Long.compare(b1.getId(), b2.getId());
+                }
+            });
+            bonuses = bArray;
+        }
+
+        this.borders = new Borders(this, prevData == null ? null : prevData.borders);
+    }
+
+    public synchronized WorldEngine.ProjectileTrack getProjectileTrack(Projectile projectile) {
+        WorldEngine.ProjectileTrack track = projectileTracks.get(projectile);
+        if (track == null) {
+            track = new WorldEngine.ProjectileTrack(projectile, this);
+            projectileTracks.put(projectile, track);
+        }
+        return track;
+    }
+
+    private static boolean isSameBonuses(World world, Bonus[] bonuses) {
+        if (world.getBonusCount() != bonuses.length)
+            return false;
+
+        for (int i = 0; i < bonuses.length; i++) {
+            if (world.getBonus(i) != bonuses[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isSameTiles(World world, TileType[][] tiles) {
+        if (world.getWidth() != tiles.length)
+            return false;
+
+        for (int x = 0; x < tiles.length; x++) {
+            if (world.getHeight() != tiles[x].length)
+                return false;
+            for (int y = 0; y < tiles[x].length; y++) {
+                if (world.getTileType(x, y) != tiles[x][y])
+                    return false;
+            }
+        }
+        return true;
+    }
 
+    private static Map<TileType, Util.TileInfo> createTileTypeInfo() {
         EnumMap<TileType, Util.TileInfo> ttInfo = new EnumMap<>(TileType.class);
         ttInfo.put(TileType.VERTICAL, new Util.TileInfo(Util.Side.LEFT, Util.Side.RIGHT));
         ttInfo.put(TileType.HORIZONTAL, new Util.TileInfo(Util.Side.TOP, Util.Side.BOTTOM));
@@ -40,14 +125,16 @@ public class GameData {
         ttInfo.put(TileType.CROSSROADS, new Util.TileInfo());
         ttInfo.put(TileType.UNKNOWN, new Util.TileInfo());
         ttInfo.put(TileType.EMPTY, new Util.TileInfo(Util.Side.LEFT, Util.Side.TOP, Util.Side.RIGHT, Util.Side.BOTTOM));
-        tileTypeInfo = Collections.unmodifiableMap(ttInfo);
+        return Collections.unmodifiableMap(ttInfo);
+    }
 
+    private static TileType[] createTypeByBorders() {
         Util.Side[] sides = Util.Side.values();
 
         TileType[] typeByBorders = new TileType[16];
         Arrays.fill(typeByBorders, TileType.EMPTY);
         for (TileType tileType : TileType.values()) {
-            Util.TileInfo tileInfo = tileTypeInfo.get(tileType);
+            Util.TileInfo tileInfo = TILE_TYPE_INFO.get(tileType);
 
             if (TileType.UNKNOWN.equals(tileType))
                 continue;
@@ -55,11 +142,14 @@ public class GameData {
             int index = getIndex(tileInfo.getBorders(), sides);
             typeByBorders[index] = tileType;
         }
+        return typeByBorders;
+    }
 
+    private TileType[][] inferTileTypes(TileType[][] tTypes) {
+        Util.Side[] sides = Util.Side.values();
         Queue<GameUtil.Point> tileQueue = new PriorityQueue<>();
 
-        TileType[][] tTypes = world.getTilesXY();
-        this.tileTypes = new TileType[world.getWidth()][world.getHeight()];
+        TileType[][] tileTypes = new TileType[world.getWidth()][world.getHeight()];
         boolean[][][] tileBorders = new boolean[world.getWidth()][world.getHeight()][4];
         for (int x=0;x<world.getWidth();x++) {
             for (int y = 0; y < world.getHeight(); y++) {
@@ -82,10 +172,10 @@ public class GameData {
         while (!tileQueue.isEmpty()) {
             GameUtil.Point point = tileQueue.remove();
             boolean[] tBorders = tileBorders[point.x][point.y];
-            TileType type = typeByBorders[getIndex(tBorders, sides)];
+            TileType type = TYPE_BY_BORDERS[getIndex(tBorders, sides)];
             Util.TileInfo tInfo = tileTypeInfo.get(type);
 
-            if (!type.equals(this.tileTypes[point.x][point.y])) {
+            if (!type.equals(tileTypes[point.x][point.y])) {
                 for (Util.Side side : sides) {
                     if (tInfo.isBorder(side))
                         tBorders[side.ordinal()] = true;
@@ -99,36 +189,20 @@ public class GameData {
                 }
             }
 
-            this.tileTypes[point.x][point.y] = type;
+            tileTypes[point.x][point.y] = type;
         }
-
-        List<Bonus> bList = Arrays.asList(world.getBonuses());
-        Collections.sort(bList, new Comparator<Bonus>() {
-            @Override
-            public int compare(Bonus b1, Bonus b2) {
-                return Long.compare(b1.getId(), b2.getId());
-            }
-        });
-        bonuses = bList.toArray(new Bonus[bList.size()]);
-
-        this.borders = new Borders(this);
+        return tileTypes;
     }
 
     public UnitState.CarState getPrevState(Car car) {
-        UnitState.CarState pState = prevStates.get(car.getId());
-        if (pState == null) {
-            pState = new UnitState.CarState(car, car.getAngularSpeed(), game);
-            prevStates.put(car.getId(), pState);
-        }
-
-        return pState;
+        return prevStates.get(car, game);
     }
 
     public boolean isOutOfWorld(int x, int y) {
         return x < 0 || x >= world.getWidth() || y < 0 || y >= world.getHeight();
     }
 
-    private int getIndex(boolean[] borders, Util.Side[] sides) {
+    private static int getIndex(boolean[] borders, Util.Side[] sides) {
         int index = 0;
         for (Util.Side side: sides) {
             if (borders[side.ordinal()])
@@ -136,4 +210,57 @@ public class GameData {
         }
         return index;
     }
+
+    /**
+     * Состояния машин на прошлом тике. Машины за игру не меняются, поэтому их индексы определяются
+     * один раз по первому миру, а состояния лежат в массиве и обновляются на месте
+     */
+    public static class PrevStates {
+        private final long[] carIds;
+        private final UnitState.CarState[] states;
+        private final double angularSpeedFactor;
+
+        public PrevStates(World world, Game game) {
+            Car[] cars = world.getCars();
+            this.carIds = new long[cars.length];
+            this.states = new UnitState.CarState[cars.length];
+            for (int i = 0; i < cars.length; i++) {
+                carIds[i] = cars[i].getId();
+                states[i] = new UnitState.CarState(cars[i], cars[i].getAngularSpeed(), game);
+            }
+            this.angularSpeedFactor = game.getCarAngularSpeedFactor();
+        }
+
+        private int indexOf(long carId) {
+            for (int i = 0; i < carIds.length; i++) {
+                if (carIds[i] == carId)
+                    return i;
+            }
+            return -1;
+        }
+
+        public UnitState.CarState get(Car car, Game game) {
+            int index = indexOf(car.getId());
+            if (index < 0)
+                return new UnitState.CarState(car, car.getAngularSpeed(), game);
+
+            return states[index];
+        }
+
+        /**
+         * Запоминает состояния машин этого тика
+         */
+        public void update(World world, Game game) {
+            for (int i = 0; i < world.getCarCount(); i++) {
+                Car car = world.getCar(i);
+                int index = indexOf(car.getId());
+                if (index < 0)
+                    continue;
+
+                UnitState.CarState pState = states[index];
+                double prevVl = pState.ax * pState.Vx + pState.ay * pState.Vy;
+                pState.set(car, car.getWheelTurn() * angularSpeedFactor * prevVl, game);
+            }
+        }
+    }
 }
@@ -1,8 +1,6 @@
 import model.*;
 
 import java.util.Arrays;
-import java.util.PriorityQueue;
-import java.util.Queue;
 
 public class GameUtil {
     public static boolean checkCollision(RectangularUnit u1, RectangularUnit u2) {
@@ -16,46 +14,52 @@ public class GameUtil {
 
 
     public static int[][] findPath(int wpIndex, GameData data) {
-        int[][] wayPoints = data.world.getWaypoints();
-        int[][] result = new int[wayPoints.length][];
+        World world = data.world;
+        int wpCount = world.getWaypointCount();
+        int[][] result = new int[wpCount][];
 
-        for (int i=0;i<wayPoints.length;i++) {
-            int index = (wpIndex + i) % wayPoints.length;
-            int wpX = wayPoints[index][0];
-            int wpY = wayPoints[index][1];
+        for (int i=0;i<wpCount;i++) {
+            int index = (wpIndex + i) % wpCount;
+            int wpX = world.getWaypointX(index);
+            int wpY = world.getWaypointY(index);
             result[index] = findPath(wpX, wpY, data);
         }
         return result;
     }
     public static int[] findPath(int x, int y, GameData data) {
-        int[] wayPointDist = new int[data.world.getWidth()*data.world.getHeight()];
+        int width = data.world.getWidth();
+        int height = data.world.getHeight();
+        int[] wayPointDist = new int[width*height];
         Arrays.fill(wayPointDist, Integer.MAX_VALUE);
-        Point start = new Point(x, y, 0);
-        wayPointDist[getTIndex(start.x, start.y, data.world.getWidth())] = start.dist;
+
+        //все ребра единичные, поэтому достаточно обычной очереди; каждый тайл попадает в нее не больше одного раза
+        int[] queue = new int[width*height];
+        int head = 0, tail = 0;
+        int start = getTIndex(x, y, width);
+        wayPointDist[start] = 0;
+        queue[tail++] = start;
 
         Util.Side[] sides = Util.Side.values();
-        Queue<Point> points = new PriorityQueue<>();
-        points.add(start);
-        while(!points.isEmpty()) {
-            Point point = points.poll();
-            int index = getTIndex(point.x, point.y, data.world.getWidth());
+        while (head < tail) {
+            int index = queue[head++];
+            int pX = index % width;
+            int pY = index / width;
 
-            Util.TileInfo tileInfo = data.tileTypeInfo.get(data.tileTypes[point.x][point.y]);
+            Util.TileInfo tileInfo = data.tileTypeInfo.get(data.tileTypes[pX][pY]);
             for (Util.Side side : sides) {
                 if (!tileInfo.isBorder(side)) {
-                    int nX = point.x + side.x;
-                    int nY = point.y + side.y;
-                    if (nX < 0 || nY < 0 || nX >= data.world.getWidth() || nY >= data.world.getHeight())
+                    int nX = pX + side.x;
+                    int nY = pY + side.y;
+                    if (nX < 0 || nY < 0 || nX >= width || nY >= height)
                         continue;
                     Util.TileInfo nTileInfo = data.tileTypeInfo.get(data.tileTypes[nX][nY]);
                     if (nTileInfo == null || nTileInfo.isBorder(Util.reverse(side)))
                         continue;
 
-                    int nIndex = getTIndex(nX, nY, data.world.getWidth());
+                    int nIndex = getTIndex(nX, nY, width);
                     if (wayPointDist[nIndex] == Integer.MAX_VALUE) {
-                        int nDist = wayPointDist[index] + 1;
-                        wayPointDist[nIndex] = nDist;
-                        points.add(new Point(nX, nY, nDist));
+                        wayPointDist[nIndex] = wayPointDist[index] + 1;
+                        queue[tail++] = nIndex;
                     }
                 }
             }
@@ -85,4 +89,80 @@ public class GameUtil {
             return Integer.compare(dist, p.dist);
         }
     }
+
+    /**
+     * Карты расстояний до тайлов, переживающие ход. Карта пересчитывается только если
+     * изменился тайл, до которого (или до соседа которого) она доходила.
+     * Возвращаемые массивы общие - менять их нельзя
+     */
+    public static class PathCache {
+        private TileType[][] tileTypes;
+        private int[][] dists;
+        private int width, height;
+
+        public int[][] findPath(int wpIndex, GameData data) {
+            refresh(data);
+
+            World world = data.world;
+            int wpCount = world.getWaypointCount();
+            int[][] result = new int[wpCount][];
+            for (int i=0;i<wpCount;i++) {
+                int index = (wpIndex + i) % wpCount;
+                result[index] = get(world.getWaypointX(index), world.getWaypointY(index), data);
+            }
+            return result;
+        }
+
+        public int[] findPath(int x, int y, GameData data) {
+            refresh(data);
+            return get(x, y, data);
+        }
+
+        private int[] get(int x, int y, GameData data) {
+            int index = getTIndex(x, y, width);
+            if (dists[index] == null)
+                dists[index] = GameUtil.findPath(x, y, data);
+
+            return dists[index];
+        }
+
+        private void refresh(GameData data) {
+            if (tileTypes == null || width != data.world.getWidth() || height != data.world.getHeight()) {
+                width = data.world.getWidth();
+                height = data.world.getHeight();
+                dists = new int[width*height][];
+                tileTypes = new TileType[width][];
+                for (int x=0;x<width;x++) {
+                    tileTypes[x] = Arrays.copyOf(data.tileTypes[x], height);
+                }
+                return;
+            }
+
+            for (int x=0;x<width;x++) {
+                for (int y=0;y<height;y++) {
+                    if (tileTypes[x][y] == data.tileTypes[x][y])
+                        continue;
+
+                    tileTypes[x][y] = data.tileTypes[x][y];
+                    for (int i=0;i<dists.length;i++) {
+                        if (dists[i] != null && isReached(dists[i], x, y))
+                            dists[i] = null;
+                    }
+                }
+            }
+        }
+
+        private boolean isReached(int[] dist, int x, int y) {
+            if (dist[getTIndex(x, y, width)] != Integer.MAX_VALUE)
+                return true;
+
+            for (Util.Side side : Util.Side.values()) {
+                int nX = x + side.x;
+                int nY = y + side.y;
+                if (nX >= 0 && nY >= 0 && nX < width && nY < height && dist[getTIndex(nX, nY, width)] != Integer.MAX_VALUE)
+                    return true;
+            }
+            return false;
+        }
+    }
 }
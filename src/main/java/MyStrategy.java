@@ -2,11 +2,10 @@ import model.*;
 
 import java.util.Arrays;
 import java.util.EnumMap;
-import java.util.HashMap;
-import java.util.Map;
 
 public final class MyStrategy implements Strategy {
-    private static final TestEngine testEngine = new TestEngine(100);
+    //сверка предсказаний движка (и грубых шагов с точными) с сервером: -DcheckPredictions=true
+    private static final boolean CHECK_PREDICTIONS = Boolean.getBoolean("checkPredictions");
 
     private static final EnumMap<CarType, Driver> myDrivers = new EnumMap<CarType, Driver>(CarType.class) {{
         Driver buggyDriver = new Driver();
@@ -18,8 +17,13 @@ public final class MyStrategy implements Strategy {
         put(CarType.JEEP, jeepDriver);
     }};
 
-    private Map<Long, UnitState.CarState> prevStates;
+    private GameData.PrevStates prevStates;
     private int startEmergencyTick;
+    private final CarTracker.StateArena stateArena = new CarTracker.StateArena();
+    private final GameUtil.PathCache pathCache = new GameUtil.PathCache();
+    private GameData prevGameData;
+    //у каждой машины свой предсказатель, ходы машин могут идти одновременно
+    private final TestEngine testEngine = new TestEngine(100, Driver.ADAPTIVE_SUB_STEPS);
 
     @Override
     public void move(Car self, World world, Game game, Move move) {
@@ -39,20 +43,18 @@ public final class MyStrategy implements Strategy {
         //todo некорректное сравнение состояния бонусов
         //todo не сбрасывать лучший путь если изменения его не затрагивают, сбрасывать частично если частично затрагивают
         //todo другая схема поиска пути при обнулении лучшего пути (возможно рандомизированная)
-        //todo дорабатывать лучший путь каждый тик а не заного искать лучший (с принудительным ветвлением в текущем тике)
 
         if (self.isFinishedTrack())
             return;
 
-        if (prevStates == null) {
-            prevStates = new HashMap<>();
-            for (Car car : world.getCars()) {
-                prevStates.put(car.getId(), new UnitState.CarState(car, car.getAngularSpeed(), game));
-            }
-        }
+        if (prevStates == null)
+            prevStates = new GameData.PrevStates(world, game);
 
-        GameData gameData = new GameData(self, world, game, move, prevStates);
-//        testEngine.checkPredictions(self, gameData);
+        GameData gameData = new GameData(self, world, game, move, prevStates, prevGameData);
+        prevGameData = gameData;
+        stateArena.reset();
+        if (CHECK_PREDICTIONS)
+            testEngine.checkPredictions(self, gameData);
 
 //        if (world.getTick() == 230)
 //            move.setThrowProjectile(true);
@@ -89,7 +91,7 @@ public final class MyStrategy implements Strategy {
 //            }
 //        } else {
 
-            int[][] path = GameUtil.findPath(self.getNextWaypointIndex(), gameData);
+            int[][] path = pathCache.findPath(self.getNextWaypointIndex(), gameData);
 
             Driver driver = myDrivers.get(self.getType());
             CarNodeI bestNode = driver.findBestPath(self, gameData, path, self.getNextWaypointIndex());
@@ -174,7 +176,8 @@ public final class MyStrategy implements Strategy {
                     }
                 }
 
-                for (Car car : world.getCars()) {
+                for (int carIndex = 0; carIndex < world.getCarCount(); carIndex++) {
+                    Car car = world.getCar(carIndex);
                     if (car.isTeammate() || car.isFinishedTrack())
                         continue;
 
@@ -183,7 +186,7 @@ public final class MyStrategy implements Strategy {
                         int maxSCount = 1500;
                         CarTracker.CarNode normalTrack = null;
 
-                        int[] toCarPath = GameUtil.findPath((int) (car.getX() * invTSize), (int) (car.getY() * invTSize), gameData);
+                        int[] toCarPath = pathCache.findPath((int) (car.getX() * invTSize), (int) (car.getY() * invTSize), gameData);
 
                         if (self.getOilCanisterCount() > 0 && self.getRemainingOilCooldownTicks() <= 0) {
                             final double maxCarSpeed = 35;
@@ -240,15 +243,16 @@ public final class MyStrategy implements Strategy {
                 }
 
                 if (move.isThrowProjectile()) {
-                    for (Car car : world.getCars()) {
+                    for (int carIndex = 0; carIndex < world.getCarCount(); carIndex++) {
+                        Car car = world.getCar(carIndex);
                         if (!car.isTeammate() || car.isFinishedTrack())
                             continue;
 
                         CarTracker.CarPathEngine carEngine = new CarTracker.CarPathEngine(car, gameData, path, (short) car.getNextWaypointIndex());
-                        CarTracker.WEngine engine = new CarTracker.WEngine(new CarTracker.CarPathEngine[]{carEngine}, gameData, normalSlicks, driver.getTeammateBestPath());
+                        CarTracker.WEngine engine = new CarTracker.WEngine(new CarTracker.CarPathEngine[]{carEngine}, gameData, normalSlicks, driver.getTeammateBestPath(world.getTick()));
                         engine.setResolveBorderCollisions(false);
                         CarTracker.WState startState = new CarTracker.WState(new CarTracker.CState[]{carEngine.getState()}, gameData, possibleProjectles);
-                        CarTracker.CarNode posibleTeammateTrack = Driver.buildBestPath(400, sCount, new CarTracker.CarNode.DistTreeStrategy(), startState, gameData, new Driver.CarNodeQualityComparator(), engine, 2.0, false, true);
+                        CarTracker.CarNode posibleTeammateTrack = Driver.buildBestPath(400, sCount, new CarTracker.CarNode.DistTreeStrategy(), startState, gameData, new Driver.CarNodeQualityComparator(), engine, 2.0, false, true, stateArena);
                         double teammateWorthLost = bestNode.getMaxWorth() - posibleTeammateTrack.getMaxWorth();
                         if (teammateWorthLost > 1_000_000) {
                             move.setThrowProjectile(false);
@@ -260,15 +264,10 @@ public final class MyStrategy implements Strategy {
 //        }
 
 
-        Map<Long, UnitState.CarState> newPrevStates = new HashMap<>();
-        for (Car car : world.getCars()) {
-            UnitState.CarState pState = prevStates.get(car.getId());
-            if (pState == null)
-                pState = new UnitState.CarState(car, car.getAngularSpeed(), game);
-            newPrevStates.put(car.getId(), new CarEngine<>(car, gameData).createState(self, pState, game));
-        }
-        this.prevStates = newPrevStates;
-//        testEngine.updatePredictions(self, gameData);
+        //прогноз строится от прошлого состояния, поэтому до того, как prevStates запомнит этот тик
+        if (CHECK_PREDICTIONS)
+            testEngine.updatePredictions(self, gameData);
+        prevStates.update(world, game);
     }
 
 
@@ -280,7 +279,7 @@ public final class MyStrategy implements Strategy {
         engine.setResolveBorderCollisions(resolveCollisions);
         CarTracker.CarNode.TreeStrategy treeStrategy = resolveCollisions ? new CarTracker.CarNode.DistTreeStrategy() : new CarTracker.CarNode.StateTreeStrategy();
 
-        CarTracker carTracker = new CarTracker(treeStrategy, engine, len, 1.0, false, false);
+        CarTracker carTracker = new CarTracker(treeStrategy, engine, len, 1.0, false, false, stateArena);
         CarTracker.CarNode root = carTracker.buildRoot(data.game, false, false);
 
         for (int i=0;i<(sCount/20);i++) {
@@ -2,9 +2,13 @@ import model.*;
 
 import java.io.*;
 import java.lang.reflect.Array;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -15,25 +19,71 @@ public final class RemoteProcessClient implements Closeable {
     private static final int INTEGER_SIZE_BYTES = Integer.SIZE / Byte.SIZE;
     private static final int LONG_SIZE_BYTES = Long.SIZE / Byte.SIZE;
 
-    private final Socket socket;
-    private final InputStream inputStream;
-    private final OutputStream outputStream;
-    private final ByteArrayOutputStream outputStreamBuffer;
+    private final ReadableByteChannel inputChannel;
+    private final WritableByteChannel outputChannel;
+    private final WritableByteChannel recordChannel;
+    //поля разбираются прямо из буфера, без промежуточных массивов.
+    //flip/clear/limit/position вызываются через Buffer: в Java 9+ ByteBuffer их переопределяет, и собранный новым JDK класс не запустился бы на Java 7/8
+    private final ByteBuffer inputBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE_BYTES).order(PROTOCOL_BYTE_ORDER);
+    private final ByteBuffer outputBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE_BYTES).order(PROTOCOL_BYTE_ORDER);
 
     private String mapName;
     private TileType[][] tilesXY;
     private int[][] waypoints;
     private Direction startingDirection;
+    //игроки и бонусы прошлого тика: неизменившиеся объекты переиспользуются, а не создаются заново
+    private Player[] prevPlayers = new Player[0];
+    private Bonus[] prevBonuses = new Bonus[0];
 
     public RemoteProcessClient(String host, int port) throws IOException {
-        socket = new Socket(host, port);
-        socket.setSendBufferSize(BUFFER_SIZE_BYTES);
-        socket.setReceiveBufferSize(BUFFER_SIZE_BYTES);
-        socket.setTcpNoDelay(true);
+        this(host, port, null);
+    }
+
+    /**
+     * @param recordFile файл, в который копируются все полученные от сервера байты (может быть null).
+     *                   Запись потом проигрывается через {@link #replay(String)}
+     */
+    public RemoteProcessClient(String host, int port, String recordFile) throws IOException {
+        SocketChannel socketChannel = SocketChannel.open();
+        socketChannel.socket().setSendBufferSize(BUFFER_SIZE_BYTES);
+        socketChannel.socket().setReceiveBufferSize(BUFFER_SIZE_BYTES);
+        socketChannel.socket().setTcpNoDelay(true);
+        socketChannel.connect(new InetSocketAddress(host, port));
+
+        this.inputChannel = socketChannel;
+        this.outputChannel = socketChannel;
+        this.recordChannel = recordFile == null ? null : new FileOutputStream(recordFile).getChannel();
+        ((Buffer) this.inputBuffer).limit(0);
+    }
+
+    private RemoteProcessClient(ReadableByteChannel inputChannel) {
+        this.inputChannel = inputChannel;
+        this.outputChannel = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int count = src.remaining();
+                ((Buffer) src).position(src.limit());
+                return count;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        this.recordChannel = null;
+        ((Buffer) this.inputBuffer).limit(0);
+    }
 
-        inputStream = socket.getInputStream();
-        outputStream = socket.getOutputStream();
-        outputStreamBuffer = new ByteArrayOutputStream(BUFFER_SIZE_BYTES);
+    /**
+     * Клиент, который вместо сервера читает записанную игру. Ходы стратегии никуда не отправляются
+     */
+    public static RemoteProcessClient replay(String recordFile) throws IOException {
+        return new RemoteProcessClient(new FileInputStream(recordFile).getChannel());
     }
 
     public void writeToken(String token) throws IOException {
@@ -113,7 +163,12 @@ public final class RemoteProcessClient implements Closeable {
 
     @Override
     public void close() throws IOException {
-        socket.close();
+        try {
+            inputChannel.close();
+        } finally {
+            if (recordChannel != null)
+                recordChannel.close();
+        }
     }
 
     private World readWorld() throws IOException {
@@ -137,13 +192,30 @@ public final class RemoteProcessClient implements Closeable {
 
         for (int playerIndex = 0; playerIndex < playerCount; ++playerIndex) {
             if (readBoolean()) {
-                players[playerIndex] = new Player(readLong(), readBoolean(), readString(), readBoolean(), readInt());
+                players[playerIndex] = readPlayer(playerIndex);
             }
         }
 
+        prevPlayers = players;
         return players;
     }
 
+    private Player readPlayer(int playerIndex) throws IOException {
+        long id = readLong();
+        boolean me = readBoolean();
+        String name = readString();
+        boolean strategyCrashed = readBoolean();
+        int score = readInt();
+
+        Player prev = playerIndex < prevPlayers.length ? prevPlayers[playerIndex] : null;
+        if (prev != null && prev.getId() == id && prev.isMe() == me && prev.getName().equals(name)
+                && prev.isStrategyCrashed() == strategyCrashed && prev.getScore() == score) {
+            return prev;
+        }
+
+        return new Player(id, me, name, strategyCrashed, score);
+    }
+
     private Car[] readCars() throws IOException {
         int carCount = readInt();
         if (carCount < 0) {
@@ -207,21 +279,55 @@ public final class RemoteProcessClient implements Closeable {
         Bonus[] bonuses = new Bonus[bonusCount];
 
         for (int bonusIndex = 0; bonusIndex < bonusCount; ++bonusIndex) {
-            bonuses[bonusIndex] = readBonus();
+            bonuses[bonusIndex] = readBonus(bonusIndex);
         }
 
+        prevBonuses = bonuses;
         return bonuses;
     }
 
-    private Bonus readBonus() throws IOException {
+    private Bonus readBonus(int bonusIndex) throws IOException {
         if (!readBoolean()) {
             return null;
         }
 
-        return new Bonus(
-                readLong(), readDouble(), readDouble(), readDouble(), readDouble(), readDouble(), readDouble(),
-                readDouble(), readDouble(), readDouble(), readEnum(BonusType.class)
-        );
+        long id = readLong();
+        double mass = readDouble();
+        double x = readDouble();
+        double y = readDouble();
+        double speedX = readDouble();
+        double speedY = readDouble();
+        double angle = readDouble();
+        double angularSpeed = readDouble();
+        double width = readDouble();
+        double height = readDouble();
+        BonusType type = readEnum(BonusType.class);
+
+        Bonus prev = findPrevBonus(id, bonusIndex);
+        if (prev != null && prev.getMass() == mass && prev.getX() == x && prev.getY() == y
+                && prev.getSpeedX() == speedX && prev.getSpeedY() == speedY && prev.getAngle() == angle
+                && prev.getAngularSpeed() == angularSpeed && prev.getWidth() == width && prev.getHeight() == height
+                && prev.getType() == type) {
+            return prev;
+        }
+
+        return new Bonus(id, mass, x, y, speedX, speedY, angle, angularSpeed, width, height, type);
+    }
+
+    /**
+     * Бонус прошлого тика с тем же id. Порядок бонусов обычно не меняется, поэтому сначала проверяется тот же индекс
+     */
+    private Bonus findPrevBonus(long id, int bonusIndex) {
+        if (bonusIndex < prevBonuses.length && prevBonuses[bonusIndex] != null && prevBonuses[bonusIndex].getId() == id) {
+            return prevBonuses[bonusIndex];
+        }
+
+        for (Bonus bonus : prevBonuses) {
+            if (bonus != null && bonus.getId() == id) {
+                return bonus;
+            }
+        }
+        return null;
     }
 
     private OilSlick[] readOilSlicks() throws IOException {
@@ -293,7 +399,8 @@ public final class RemoteProcessClient implements Closeable {
     }
 
     private <E extends Enum> E readEnum(Class<E> enumClass) throws IOException {
-        byte ordinal = readBytes(1)[0];
+        ensureInput(1);
+        byte ordinal = inputBuffer.get();
 
         E[] values = enumClass.getEnumConstants();
         int valueCount = values.length;
@@ -310,7 +417,6 @@ public final class RemoteProcessClient implements Closeable {
 
     @SuppressWarnings("unchecked")
     private <E extends Enum> E[] readEnumArray(Class<E> enumClass, int count) throws IOException {
-        byte[] bytes = readBytes(count);
         E[] array = (E[]) Array.newInstance(enumClass, count);
 
         E[] values = enumClass.getEnumConstants();
@@ -324,7 +430,8 @@ public final class RemoteProcessClient implements Closeable {
         });
 
         for (int i = 0; i < count; ++i) {
-            byte ordinal = bytes[i];
+            ensureInput(1);
+            byte ordinal = inputBuffer.get();
 
             if (ordinal >= 0 && ordinal < valueCount) {
                 array[i] = values[ordinal];
@@ -365,7 +472,7 @@ public final class RemoteProcessClient implements Closeable {
     }
 
     private <E extends Enum> void writeEnum(E value) throws IOException {
-        writeBytes(new byte[]{value == null ? (byte) -1 : (byte) value.ordinal()});
+        outputBuffer.put(value == null ? (byte) -1 : (byte) value.ordinal());
     }
 
     private String readString() throws IOException {
@@ -390,15 +497,15 @@ public final class RemoteProcessClient implements Closeable {
     }
 
     private boolean readBoolean() throws IOException {
-        return readBytes(1)[0] != 0;
+        ensureInput(1);
+        return inputBuffer.get() != 0;
     }
 
     private boolean[] readBooleanArray(int count) throws IOException {
-        byte[] bytes = readBytes(count);
         boolean[] array = new boolean[count];
 
         for (int i = 0; i < count; ++i) {
-            array[i] = bytes[i] != 0;
+            array[i] = readBoolean();
         }
 
         return array;
@@ -429,21 +536,19 @@ public final class RemoteProcessClient implements Closeable {
     }
 
     private void writeBoolean(boolean value) throws IOException {
-        writeBytes(new byte[]{value ? (byte) 1 : (byte) 0});
+        outputBuffer.put(value ? (byte) 1 : (byte) 0);
     }
 
     private int readInt() throws IOException {
-        return ByteBuffer.wrap(readBytes(INTEGER_SIZE_BYTES)).order(PROTOCOL_BYTE_ORDER).getInt();
+        ensureInput(INTEGER_SIZE_BYTES);
+        return inputBuffer.getInt();
     }
 
     private int[] readIntArray(int count) throws IOException {
-        byte[] bytes = readBytes(count * INTEGER_SIZE_BYTES);
         int[] array = new int[count];
 
         for (int i = 0; i < count; ++i) {
-            array[i] = ByteBuffer.wrap(
-                    bytes, i * INTEGER_SIZE_BYTES, INTEGER_SIZE_BYTES
-            ).order(PROTOCOL_BYTE_ORDER).getInt();
+            array[i] = readInt();
         }
 
         return array;
@@ -474,49 +579,78 @@ public final class RemoteProcessClient implements Closeable {
     }
 
     private void writeInt(int value) throws IOException {
-        writeBytes(ByteBuffer.allocate(INTEGER_SIZE_BYTES).order(PROTOCOL_BYTE_ORDER).putInt(value).array());
+        outputBuffer.putInt(value);
     }
 
     private long readLong() throws IOException {
-        return ByteBuffer.wrap(readBytes(LONG_SIZE_BYTES)).order(PROTOCOL_BYTE_ORDER).getLong();
+        ensureInput(LONG_SIZE_BYTES);
+        return inputBuffer.getLong();
     }
 
     private void writeLong(long value) throws IOException {
-        writeBytes(ByteBuffer.allocate(LONG_SIZE_BYTES).order(PROTOCOL_BYTE_ORDER).putLong(value).array());
+        outputBuffer.putLong(value);
     }
 
     private double readDouble() throws IOException {
-        return Double.longBitsToDouble(readLong());
+        ensureInput(LONG_SIZE_BYTES);
+        return inputBuffer.getDouble();
     }
 
     private void writeDouble(double value) throws IOException {
-        writeLong(Double.doubleToLongBits(value));
+        outputBuffer.putDouble(value);
     }
 
     private byte[] readBytes(int byteCount) throws IOException {
         byte[] bytes = new byte[byteCount];
         int offset = 0;
-        int readByteCount;
 
-        while (offset < byteCount && (readByteCount = inputStream.read(bytes, offset, byteCount - offset)) != -1) {
-            offset += readByteCount;
-        }
-
-        if (offset != byteCount) {
-            throw new IOException(String.format("Can't read %d bytes from input stream.", byteCount));
+        while (offset < byteCount) {
+            ensureInput(1);
+            int count = Math.min(byteCount - offset, inputBuffer.remaining());
+            inputBuffer.get(bytes, offset, count);
+            offset += count;
         }
 
         return bytes;
     }
 
+    /**
+     * Дочитывает из канала, пока в буфере не наберется byteCount байт. Прочитанное копируется в recordChannel
+     */
+    private void ensureInput(int byteCount) throws IOException {
+        if (inputBuffer.remaining() >= byteCount)
+            return;
+
+        inputBuffer.compact();
+        try {
+            while (inputBuffer.position() < byteCount) {
+                int position = inputBuffer.position();
+                if (inputChannel.read(inputBuffer) == -1)
+                    throw new IOException(String.format("Can't read %d bytes from input stream.", byteCount));
+
+                if (recordChannel != null) {
+                    ByteBuffer received = inputBuffer.duplicate();
+                    ((Buffer) received).flip().position(position);
+                    while (received.hasRemaining()) {
+                        recordChannel.write(received);
+                    }
+                }
+            }
+        } finally {
+            ((Buffer) inputBuffer).flip();
+        }
+    }
+
     private void writeBytes(byte[] bytes) throws IOException {
-        outputStreamBuffer.write(bytes);
+        outputBuffer.put(bytes);
     }
 
     private void flush() throws IOException {
-        outputStream.write(outputStreamBuffer.toByteArray());
-        outputStreamBuffer.reset();
-        outputStream.flush();
+        ((Buffer) outputBuffer).flip();
+        while (outputBuffer.hasRemaining()) {
+            outputChannel.write(outputBuffer);
+        }
+        ((Buffer) outputBuffer).clear();
     }
 
     private enum MessageType {
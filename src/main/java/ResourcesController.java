@@ -1,9 +1,20 @@
 import model.*;
 
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
 import java.lang.management.ThreadMXBean;
 import java.util.HashSet;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created with IntelliJ IDEA.
@@ -22,18 +33,37 @@ public class ResourcesController {
     private static long REAL_TIME_MOVE_THRESHOLD;
     private static long REAL_GAME_TIME_THRESHOLD;
     private static long CPU_GAME_TIME_THRESHOLD;
+    private static long CAR_TICK_TIME;
     private static Long gameStartTime;
-    private static long gameStartCPUTime;
     private static int moveCount;
 
     private static MemoryMXBean memoryMXBean;
     private static ThreadMXBean threadMXBean;
+    //процессорное время всего процесса: поиск идет и в потоках ForkJoinPool, время потока хода его не учитывает
+    private static com.sun.management.OperatingSystemMXBean processMXBean;
+    private static long gameStartCPUTime;
 
     private static long gameSumRealTime, gameSumCPUTime;
-    private static long moveStartRealTime;
+    //ходы машин могут идти одновременно, у каждого потока хода свое начало
+    private static final ThreadLocal<long[]> moveStartRealTime = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+    private static final ThreadLocal<long[]> moveStartCPUTime = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
     private static long awMoveRealTime, awMovieCPUTime;
 
-    public static void startMove(World world, double memoryThreshold, double moveTimeThreshold, double gameTimeThreshold) {
+    //метрики пишутся, только если задан файл: -Dtelemetry=файл
+    private static final String TELEMETRY_FILE = System.getProperty("telemetry");
+    private static Telemetry telemetry;
+
+    public static synchronized void startMove(World world, double memoryThreshold, double moveTimeThreshold, double gameTimeThreshold) {
         if (gameStartTime == null) {
             gameStartTime = System.currentTimeMillis();
             moveCount = 0;
@@ -41,8 +71,8 @@ public class ResourcesController {
             gameSumCPUTime = 0;
 
             int carCount = 0;
-            for (Car car : world.getCars()) {
-                if (car.isTeammate())
+            for (int i = 0; i < world.getCarCount(); i++) {
+                if (world.getCar(i).isTeammate())
                     carCount++;
             }
 
@@ -51,44 +81,132 @@ public class ResourcesController {
             REAL_GAME_TIME_THRESHOLD = (long)((REAL_GAME_TIME_CAR_TICK_LIMIT * world.getTickCount() * carCount + GAME_TIME_CAR_BASE) * gameTimeThreshold);
             CPU_GAME_TIME_THRESHOLD = (long)((CPU_GAME_TIME_CAR_TICK_LIMIT * world.getTickCount() * carCount + GAME_TIME_CAR_BASE) * gameTimeThreshold);
 
+            CAR_TICK_TIME = Math.min(REAL_GAME_TIME_THRESHOLD, CPU_GAME_TIME_THRESHOLD) * 1000000L / (world.getTickCount() * Math.max(1, carCount));
+
             awMoveRealTime = REAL_GAME_TIME_THRESHOLD / world.getLastTickIndex();
             awMovieCPUTime = CPU_GAME_TIME_THRESHOLD / world.getLastTickIndex();
 
             memoryMXBean = ManagementFactory.getMemoryMXBean();
             threadMXBean = ManagementFactory.getThreadMXBean();
 
-            gameStartCPUTime = getCurrentThreadCpuTime();
+            OperatingSystemMXBean osMXBean = ManagementFactory.getOperatingSystemMXBean();
+            processMXBean = osMXBean instanceof com.sun.management.OperatingSystemMXBean ? (com.sun.management.OperatingSystemMXBean) osMXBean : null;
+            gameStartCPUTime = processMXBean != null ? getProcessCpuTime() : 0;
+
+            if (TELEMETRY_FILE != null)
+                telemetry = new Telemetry(threadMXBean);
         }
 
-        moveStartRealTime = System.currentTimeMillis();
+        moveStartRealTime.get()[0] = System.currentTimeMillis();
+        moveStartCPUTime.get()[0] = getCurrentThreadCpuTime();
+        if (telemetry != null)
+            telemetry.startMove();
     }
 
-    public static void endMove() {
+    /**
+     * Процессорное время берется по процессу целиком. Если JVM его не отдает - копится по ходам,
+     * т.к. ходы машин могут идти в разных потоках (время потоков поиска тогда не учитывается)
+     */
+    public static synchronized void endMove() {
         gameSumRealTime = System.currentTimeMillis() - gameStartTime;
-        gameSumCPUTime = (getCurrentThreadCpuTime() - gameStartCPUTime);
+        if (processMXBean != null)
+            gameSumCPUTime = getProcessCpuTime() - gameStartCPUTime;
+        else
+            gameSumCPUTime += getCurrentThreadCpuTime() - moveStartCPUTime.get()[0];
         moveCount++;
 
         awMoveRealTime = gameSumRealTime / moveCount;
         awMovieCPUTime = gameSumCPUTime / moveCount;
+
+        if (telemetry != null)
+            telemetry.endMove(getMoveRealTimeConsumed());
+    }
+
+    /**
+     * Память, выделенная текущим потоком, байт. -1, если метрики не собираются
+     */
+    public static long getThreadAllocatedBytes() {
+        return telemetry != null ? telemetry.getThreadAllocatedBytes() : -1;
+    }
+
+    /**
+     * Память, выделенная потоками ForkJoinPool на поиск для хода текущего потока
+     */
+    public static void recordWorkerAllocation(long bytes) {
+        if (telemetry != null)
+            telemetry.recordWorkerAllocation(bytes);
+    }
+
+    /**
+     * Один вызов поиска: время, нс, и сколько состояний и веток он добавил в дерево
+     */
+    public static synchronized void recordSearch(long time, int stateCount, int branchCount) {
+        if (telemetry != null)
+            telemetry.recordSearch(time, stateCount, branchCount);
+    }
+
+    /**
+     * Сохраняет метрики игры в TELEMETRY_FILE, если он задан
+     */
+    public static synchronized void writeTelemetry() {
+        if (telemetry == null)
+            return;
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter(TELEMETRY_FILE))) {
+            telemetry.write(writer);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     private static long getMoveRealTimeConsumed() {
-        return System.currentTimeMillis() - moveStartRealTime;
+        return System.currentTimeMillis() - getMoveStartRealTime();
+    }
+
+    /**
+     * Начало хода текущего потока, мс. Потоки поиска получают его от потока хода
+     */
+    public static long getMoveStartRealTime() {
+        return moveStartRealTime.get()[0];
     }
 
     private static long getCurrentThreadCpuTime() {
         return threadMXBean.getCurrentThreadCpuTime()/1000000l;
     }
+    private static long getProcessCpuTime() {
+        return processMXBean.getProcessCpuTime()/1000000l;
+    }
     private static long getMemoryUsage() {
         return memoryMXBean.getHeapMemoryUsage().getUsed();
     }
 
+    /**
+     * Среднее время на ход одной машины за тик по лимитам игры, нс
+     */
+    public static long getCarTickTime() {
+        return CAR_TICK_TIME;
+    }
+
     public static boolean isMemoryThresholdExceeded() {
         return getMemoryUsage() > MEMORY_THRESHOLD;
     }
+
+    /**
+     * Сколько раз за игру собирался мусор. Память выкинутых поддеревьев освобождается только после сборки
+     */
+    public static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gcBean.getCollectionCount());
+        }
+        return count;
+    }
     public static boolean isMoveTimeThresholdExceeded() {
         return getMoveRealTimeConsumed() > REAL_TIME_MOVE_THRESHOLD;
     }
+    public static boolean isMoveTimeThresholdExceeded(long moveStartRealTime) {
+        return System.currentTimeMillis() - moveStartRealTime > REAL_TIME_MOVE_THRESHOLD;
+    }
 
 //    public static double getMoveRealTimeScale(World world) {
 //        double startAwRealMoveTime = (1.0*REAL_GAME_TIME_THRESHOLD) / world.getLastTickIndex();
@@ -99,12 +217,12 @@ public class ResourcesController {
 //        return startAwCPUMoveTime / awMovieCPUTime;
 //    }
 
-    public static double getGameRealTimeScale(World world) {
+    public static synchronized double getGameRealTimeScale(World world) {
         double startAwTimeForMove = (1.0*REAL_GAME_TIME_THRESHOLD) / world.getLastTickIndex();
         double awTimeForMove = (1.0*(REAL_GAME_TIME_THRESHOLD - gameSumRealTime)) / (world.getLastTickIndex() - world.getTick());
         return awTimeForMove / startAwTimeForMove;
     }
-    public static double getGameCPUTimeScale(World world) {
+    public static synchronized double getGameCPUTimeScale(World world) {
         double startAwCPUTimeForMove = (1.0*CPU_GAME_TIME_THRESHOLD) / world.getLastTickIndex();
         double awCPUTimeForMove = (1.0*(CPU_GAME_TIME_THRESHOLD - gameSumCPUTime)) / (world.getLastTickIndex() - world.getTick());
         return awCPUTimeForMove / startAwCPUTimeForMove;
@@ -113,4 +231,125 @@ public class ResourcesController {
     public static void gc() {
         memoryMXBean.gc();
     }
+
+    /**
+     * Метрики игры. Счетчики ходов и поисков меняются под блокировкой ResourcesController,
+     * паузы сборщика приходят уведомлениями из его потока
+     */
+    private static class Telemetry implements NotificationListener {
+        private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+        private final com.sun.management.ThreadMXBean allocationMXBean;
+        //начало хода по счетчику потока хода и выделенное за ход потоками поиска
+        private final ThreadLocal<long[]> moveStartAllocatedBytes = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[2];
+            }
+        };
+
+        private final Histogram moveTime = new Histogram();
+        private final Histogram searchTime = new Histogram();
+        private final AtomicLong gcCount = new AtomicLong();
+        private final AtomicLong gcPauseTime = new AtomicLong();
+        private long moves, allocatedBytes, maxMoveAllocatedBytes;
+        private long searches, searchSumTime, searchStates, searchBranches;
+
+        private Telemetry(ThreadMXBean threadMXBean) {
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+                allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+                allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                allocationMXBean = null;
+            }
+
+            for (GarbageCollectorMXBean gcMXBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (gcMXBean instanceof NotificationEmitter)
+                    ((NotificationEmitter) gcMXBean).addNotificationListener(this, null, null);
+            }
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GC_NOTIFICATION.equals(notification.getType()))
+                return;
+
+            CompositeData gcInfo = (CompositeData) ((CompositeData) notification.getUserData()).get("gcInfo");
+            gcCount.incrementAndGet();
+            gcPauseTime.addAndGet((Long) gcInfo.get("duration"));
+        }
+
+        private void startMove() {
+            if (allocationMXBean != null) {
+                long[] moveAllocatedBytes = moveStartAllocatedBytes.get();
+                moveAllocatedBytes[0] = getThreadAllocatedBytes();
+                moveAllocatedBytes[1] = 0;
+            }
+        }
+
+        private long getThreadAllocatedBytes() {
+            return allocationMXBean != null ? allocationMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+        }
+
+        private void recordWorkerAllocation(long bytes) {
+            moveStartAllocatedBytes.get()[1] += bytes;
+        }
+
+        private void endMove(long time) {
+            moves++;
+            moveTime.add(time);
+            if (allocationMXBean != null) {
+                long[] moveAllocatedBytes = moveStartAllocatedBytes.get();
+                long bytes = getThreadAllocatedBytes() - moveAllocatedBytes[0] + moveAllocatedBytes[1];
+                allocatedBytes += bytes;
+                maxMoveAllocatedBytes = Math.max(maxMoveAllocatedBytes, bytes);
+            }
+        }
+
+        private void recordSearch(long time, int stateCount, int branchCount) {
+            searches++;
+            searchSumTime += time;
+            searchStates += stateCount;
+            searchBranches += branchCount;
+            searchTime.add(time / 1000000L);
+        }
+
+        private void write(PrintWriter writer) {
+            long perMove = Math.max(1, moves);
+            writer.println(String.format(Locale.US, "moves %d", moves));
+            writer.println(String.format(Locale.US, "searches %d time %d ms states/s %.0f branches/move %.1f",
+                    searches, searchSumTime / 1000000L, searchStates * 1.0e9 / Math.max(1, searchSumTime), (1.0 * searchBranches) / perMove));
+            writer.println(String.format(Locale.US, "gc %d pause %d ms", gcCount.get(), gcPauseTime.get()));
+            writer.println(String.format(Locale.US, "allocated/move %d max %d", allocatedBytes / perMove, maxMoveAllocatedBytes));
+            writer.println("move ms " + moveTime);
+            writer.println("search ms " + searchTime);
+        }
+    }
+
+    /**
+     * Гистограмма в миллисекундах: корзина i - значения меньше 2^i, последняя - все остальное
+     */
+    private static class Histogram {
+        private final long[] counts = new long[12];
+
+        private void add(long value) {
+            int bucket = 0;
+            while (bucket < counts.length - 1 && value >= (1L << bucket))
+                bucket++;
+            counts[bucket]++;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0)
+                    continue;
+                if (sb.length() > 0)
+                    sb.append(' ');
+                sb.append(i < counts.length - 1 ? "<" + (1L << i) : ">=" + (1L << (i - 1))).append(':').append(counts[i]);
+            }
+            return sb.toString();
+        }
+    }
 }
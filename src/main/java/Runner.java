@@ -1,30 +1,45 @@
 import model.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
 
 public final class Runner {
+    private static final boolean CONCURRENT_MOVES = Runtime.getRuntime().availableProcessors() > 1;
+
     private final RemoteProcessClient remoteProcessClient;
     private final String token;
 
+    /**
+     * host port token [файл для записи игры]
+     * -replay файл - проиграть записанную игру без сервера
+     * -Dtelemetry=файл - сохранить в конце игры метрики времени, памяти и поиска
+     */
     public static void main(String[] args) throws IOException {
-        if (args.length == 3) {
-            new Runner(args).run();
+        if (args.length == 2 && "-replay".equals(args[0])) {
+            long startTime = System.currentTimeMillis();
+            new Runner(RemoteProcessClient.replay(args[1]), "0000000000000000").run();
+            System.out.println("Replay time: " + (System.currentTimeMillis() - startTime) + " ms");
+        } else if (args.length == 3 || args.length == 4) {
+            new Runner(new RemoteProcessClient(args[0], Integer.parseInt(args[1]), args.length == 4 ? args[3] : null), args[2]).run();
         } else {
-            new Runner(new String[]{"127.0.0.1", "31001", "0000000000000000"}).run();
+            new Runner(new RemoteProcessClient("127.0.0.1", 31001), "0000000000000000").run();
         }
     }
 
-    private Runner(String[] args) throws IOException {
-        remoteProcessClient = new RemoteProcessClient(args[0], Integer.parseInt(args[1]));
-        token = args[2];
+    private Runner(RemoteProcessClient remoteProcessClient, String token) {
+        this.remoteProcessClient = remoteProcessClient;
+        this.token = token;
     }
 
     public void run() throws IOException {
+        ExecutorService moveExecutor = null;
         try {
             remoteProcessClient.writeToken(token);
             int teamSize = remoteProcessClient.readTeamSize();
             remoteProcessClient.writeProtocolVersion();
-            Game game = remoteProcessClient.readGameContext();
+            final Game game = remoteProcessClient.readGameContext();
 
             Strategy[] strategies = new Strategy[teamSize];
 
@@ -32,6 +47,18 @@ public final class Runner {
                 strategies[strategyIndex] = new MyStrategy();
             }
 
+            if (CONCURRENT_MOVES && teamSize > 1) {
+                moveExecutor = Executors.newFixedThreadPool(teamSize, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "move");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                Driver.CONCURRENT_TEAM_MOVES = true;
+            }
+
             PlayerContext playerContext;
 
             while ((playerContext = remoteProcessClient.readPlayerContext()) != null) {
@@ -41,21 +68,51 @@ public final class Runner {
                 }
 
                 Move[] moves = new Move[teamSize];
+                List<Callable<Void>> carMoves = new ArrayList<>(teamSize);
 
                 for (int carIndex = 0; carIndex < teamSize; ++carIndex) {
-                    Car playerCar = playerCars[carIndex];
-
-                    Move move = new Move();
+                    final Car playerCar = playerCars[carIndex];
+                    final World world = playerContext.getWorld();
+                    final Move move = new Move();
+                    final Strategy strategy = strategies[playerCar.getTeammateIndex()];
                     moves[carIndex] = move;
-                    strategies[playerCar.getTeammateIndex()].move(
-                            playerCar, playerContext.getWorld(), game, move
-                    );
+
+                    if (moveExecutor == null) {
+                        strategy.move(playerCar, world, game, move);
+                    } else {
+                        carMoves.add(new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                strategy.move(playerCar, world, game, move);
+                                return null;
+                            }
+                        });
+                    }
                 }
 
+                if (moveExecutor != null)
+                    invokeAll(moveExecutor, carMoves);
+
                 remoteProcessClient.writeMoves(moves);
             }
         } finally {
+            if (moveExecutor != null)
+                moveExecutor.shutdownNow();
+            ResourcesController.writeTelemetry();
             remoteProcessClient.close();
         }
     }
+
+    private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
 }
@@ -5,14 +5,23 @@ import java.util.Arrays;
 public class TestEngine {
     public static final int MAX_PREDICTION_TICKS = 1000;
     public final int predictionTicks;
+    public final boolean adaptiveSubSteps;
 
     private final CarProphet carProphet;
 
     public TestEngine(int predictionTicks) {
+        this(predictionTicks, false);
+    }
+
+    /**
+     * @param adaptiveSubSteps проверять, что грубые шаги WorldEngine отклоняются от 10 подшагов не больше MAX_ADAPTIVE_STEP_ERROR за тик
+     */
+    public TestEngine(int predictionTicks, boolean adaptiveSubSteps) {
         if (predictionTicks < 0) predictionTicks = 0;
         if (predictionTicks > MAX_PREDICTION_TICKS) predictionTicks = MAX_PREDICTION_TICKS;
 
         this.predictionTicks = predictionTicks;
+        this.adaptiveSubSteps = adaptiveSubSteps;
         this.carProphet = new CarProphet(predictionTicks);
     }
 
@@ -91,25 +100,51 @@ public class TestEngine {
 
         @Override
         protected CarPrediction makePrediction(Car car, GameData data) {
-            return new CarPrediction(predictionTicks, car, data);
+            return new CarPrediction(predictionTicks, car, data, adaptiveSubSteps);
         }
     }
 
     public static class CarPrediction extends Prediction<Car> {
+        //отклонение координат грубых шагов от 10 подшагов за один тик
+        public static final double MAX_ADAPTIVE_STEP_ERROR = 0.1;
+        //отклонение скорости грубых шагов от 10 подшагов за один тик
+        public static final double MAX_ADAPTIVE_SPEED_ERROR = 0.01;
+
         private final double angularSpeedFactor;
 
         private final WorldEngine.State<UnitState.CarState>[] predictStates;
 
         final WorldEngine<UnitState.CarState, CarEngine<UnitState.CarState>, WorldEngine.State<UnitState.CarState>> engine;
+        //тот же движок с грубыми шагами, каждый тик считается от состояния engine
+        final WorldEngine<UnitState.CarState, CarEngine<UnitState.CarState>, WorldEngine.State<UnitState.CarState>> adaptiveEngine;
         private int collisionTick = -1;
+        private int adaptiveErrorTick = -1;
+        private double adaptiveError, adaptiveSpeedError;
 
         public CarPrediction(int predictTicks, Car car, GameData data) {
+            this(predictTicks, car, data, false);
+        }
+
+        public CarPrediction(int predictTicks, Car car, GameData data, boolean adaptiveSubSteps) {
             super(data.world.getTick(), predictTicks);
             this.angularSpeedFactor = data.game.getCarAngularSpeedFactor();
 
             this.predictStates = new WorldEngine.State[predictTicks+1];
 
             int[][] path = GameUtil.findPath(car.getNextWaypointIndex(), data);
+            engine = createEngine(car, data, path);
+            adaptiveEngine = adaptiveSubSteps ? createEngine(car, data, path) : null;
+            if (adaptiveEngine != null)
+                adaptiveEngine.setAdaptiveSubSteps(true);
+            this.predictStates[0] = engine.getState().copy();
+
+            logState(data.world.getTick(), 0, this.predictStates[0].getCarState(0), car);
+
+            setMove(data.move);
+            predict(1, "Collision on ");
+        }
+
+        private static WorldEngine<UnitState.CarState, CarEngine<UnitState.CarState>, WorldEngine.State<UnitState.CarState>> createEngine(Car car, GameData data, int[][] path) {
             final int toUnfreezeTicks = data.game.getInitialFreezeDurationTicks() - data.world.getTick();
             CarTracker.CarPathEngine cEngine = new CarTracker.CarPathEngine(car, data, path, (short)car.getNextWaypointIndex()) {
                 @Override
@@ -124,26 +159,53 @@ public class TestEngine {
             };
             UnitState.CarState cState = cEngine.createState(car, data.getPrevState(car), data.game);
 
-            engine = new WorldEngine<>(new CarEngine[] {cEngine}, data, data.world.getOilSlicks(), new WorldEngine.State[] {});
+            WorldEngine<UnitState.CarState, CarEngine<UnitState.CarState>, WorldEngine.State<UnitState.CarState>> engine =
+                    new WorldEngine<>(new CarEngine[] {cEngine}, data, data.world.getOilSlicks(), new WorldEngine.State[] {});
             engine.setResolveBorderCollisions(true);
             engine.setState(new WorldEngine.State<>(new UnitState.CarState[] {cState}, data, data.world.getProjectiles()));
-            this.predictStates[0] = engine.getState().copy();
+            return engine;
+        }
 
-            logState(data.world.getTick(), 0, this.predictStates[0].getCarState(0), car);
+        private void setMove(Move move) {
+            setMove(engine.getCarEngine(0), move);
+            if (adaptiveEngine != null)
+                setMove(adaptiveEngine.getCarEngine(0), move);
+        }
+
+        private static void setMove(CarEngine<UnitState.CarState> cEngine, Move move) {
+            cEngine.setEnginePowerAim(move.getEnginePower());
+            cEngine.setWheelTurnAim(move.getWheelTurn());
+            cEngine.setBreakPedal(move.isBrake());
+            cEngine.setUseNitro(move.isUseNitro());
+        }
 
-            cEngine.setEnginePowerAim(data.move.getEnginePower());
-            cEngine.setWheelTurnAim(data.move.getWheelTurn());
-            cEngine.setBreakPedal(data.move.isBrake());
-            cEngine.setUseNitro(data.move.isUseNitro());
+        private void predict(int fromTick, String collisionMessage) {
+            CarEngine<UnitState.CarState> cEngine = engine.getCarEngine(0);
+            for (int t=fromTick;t<predictStates.length;t++) {
+                if (adaptiveEngine != null)
+                    adaptiveEngine.setState(engine.getState().copy());
 
-            for (int t=1;t<predictStates.length;t++) {
                 engine.perStep();
+
+                if (adaptiveEngine != null) {
+                    adaptiveEngine.perStep();
+                    UnitState.CarState cState = engine.getState().getCarState(0);
+                    UnitState.CarState aState = adaptiveEngine.getState().getCarState(0);
+                    double error = Math.hypot(aState.x - cState.x, aState.y - cState.y);
+                    double speedError = Math.hypot(aState.Vx - cState.Vx, aState.Vy - cState.Vy);
+                    if ((error > MAX_ADAPTIVE_STEP_ERROR || speedError > MAX_ADAPTIVE_SPEED_ERROR) && adaptiveErrorTick < 0) {
+                        adaptiveErrorTick = t;
+                        adaptiveError = error;
+                        adaptiveSpeedError = speedError;
+                    }
+                }
+
                 if (!cEngine.getState().collision) {
                     predictStates[t] = engine.getState().copy();
                 } else {
                     if (collisionTick < 0) {
                         collisionTick = t;
-                        System.out.println("Collision on "+(startTick + collisionTick));
+                        System.out.println(collisionMessage+(startTick + collisionTick));
                     }
                     break;
                 }
@@ -189,25 +251,13 @@ public class TestEngine {
 
                 if (realEP != predictEP || realWT != predictWT || data.move.isBrake() != cEngine.isBreakPedal()) {
                     engine.setState(wState);
-                    cEngine.setEnginePowerAim(data.move.getEnginePower());
-                    cEngine.setWheelTurnAim(data.move.getWheelTurn());
-                    cEngine.setBreakPedal(data.move.isBrake());
-                    cEngine.setUseNitro(data.move.isUseNitro());
+                    setMove(data.move);
 
                     collisionTick = -1;
+                    if (adaptiveErrorTick > tick)
+                        adaptiveErrorTick = -1;
                     Arrays.fill(predictStates, tick+1, predictStates.length, null);
-                    for (int t=(tick+1);t<predictStates.length;t++) {
-                        engine.perStep();
-                        if (!cEngine.getState().collision) {
-                            predictStates[t] = engine.getState().copy();
-                        } else {
-                            if (collisionTick < 0) {
-                                collisionTick = t;
-                                System.out.println("New Collision on "+(startTick + collisionTick));
-                            }
-                            break;
-                        }
-                    }
+                    predict(tick + 1, "New Collision on ");
                 }
             }
         }
@@ -219,9 +269,14 @@ public class TestEngine {
             UnitState.CarState statePredict = wState.getCarState(0);
             logState(data.world.getTick(), t, statePredict, car);
 
+            if (t == adaptiveErrorTick) {
+                System.out.println("AD: " + data.world.getTick() + ", " + t + ": adaptive step error " + adaptiveError + ", speed error " + adaptiveSpeedError);
+                return false;
+            }
+
             if (data.world.getProjectiles().length > 0) {
                 Projectile projectile = data.world.getProjectiles()[0];
-                WorldEngine.ProjectileState pState = wState.projectileStates[0];
+                WorldEngine.ProjectileState pState = wState.getProjectileState(0);
                 if (pState != null) {
                     String info = "PR: " + data.world.getTick() + ", " + t + ": pErrX: " + (pState.x - projectile.getX()) + "| pErrY: " + (pState.y - projectile.getY()) + "| pErrVa: " + (pState.Va*CarEngine.SUB_STEPS - projectile.getAngularSpeed());
                     System.out.println(info);
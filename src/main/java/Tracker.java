@@ -1,7 +1,11 @@
 import java.util.*;
 
 public abstract class Tracker<T, N extends Tracker.Node<T, N>> {
+    private N frontierRoot, frontierParent;
+    private PriorityQueue<FrontierNode<N>> frontier;
+
     public boolean track(N node, int rootLen) {
+        node.visits++;
         if (node.children == null) {
             if (node.trunk.length < 2)
                 return false;
@@ -49,6 +53,7 @@ public abstract class Tracker<T, N extends Tracker.Node<T, N>> {
         normalChild.trunk = new ArrayView<>(node.trunk, trunkPoint);
         normalChild.children = node.children;
         normalChild.stateCount = node.stateCount - trunkPoint;
+        normalChild.visits = node.visits;
         normalChild.update(true);
 
         N[] newChildren = buildTrunkChildren(node, endState, rootLen + trunkPoint);
@@ -66,20 +71,271 @@ public abstract class Tracker<T, N extends Tracker.Node<T, N>> {
         node.update(true);
     }
 
+    /**
+     * Поиск по глобальной очереди вместо спуска от корня: узлы, ствол которых можно разбить, лежат в куче
+     * по оценке. После startFrontier дерево растят вызовы trackFrontier. После разбиения пересчитываются
+     * только предки разбитого узла (без сортировки детей), а оценка узла в очереди уточняется, когда он из нее достается
+     */
+    public void startFrontier(N root) {
+        startFrontier(root, null);
+    }
+
+    /**
+     * Поиск по очереди только в поддереве node (например, в потомке корня при параллельном поиске)
+     * @param parent родитель node, по нему оценивается сам node. null - node корень и сам не разбивается
+     */
+    public void startFrontier(N node, N parent) {
+        frontierRoot = node;
+        frontierParent = parent;
+        frontier = new PriorityQueue<>();
+        addToFrontier(new FrontierPath<>(node, parent == null ? null : new FrontierPath<>(parent, null)), 0);
+    }
+
+    private void addToFrontier(FrontierPath<N> path, int rootLen) {
+        N node = path.node;
+        if (path.parent != null && node.trunk.length >= 2)
+            frontier.add(new FrontierNode<>(path, rootLen, getNodeValuation(node, path.parent.node)));
+
+        if (node.children != null) {
+            for (N child : node.children) {
+                addToFrontier(new FrontierPath<>(child, path), rootLen + node.trunk.length);
+            }
+        }
+    }
+
+    /**
+     * Разбивает ствол лучшего узла очереди, новые ветки добавляются в очередь
+     * @return false, если разбивать больше нечего
+     */
+    public boolean trackFrontier() {
+        FrontierNode<N> best;
+        FrontierPath<N> parent;
+        while (true) {
+            best = frontier.poll();
+            if (best == null)
+                return false;
+            if (best.path.node.trunk.length < 2)
+                continue;
+
+            //оценка в очереди взята при добавлении. Если с тех пор она упала ниже следующего узла, узел уходит обратно в очередь
+            parent = getParentPath(best.path);
+            double valuation = getNodeValuation(best.path.node, parent.node);
+            FrontierNode<N> next = frontier.peek();
+            if (next != null && valuation < best.valuation && valuation < next.valuation) {
+                frontier.add(new FrontierNode<>(best.path, best.rootLen, valuation));
+                continue;
+            }
+            break;
+        }
+
+        N node = best.path.node;
+        int oldStateCount = node.stateCount;
+        node.visits++;
+        trackTrunk(node, best.rootLen);
+        updateFrontierAncestors(best.path, node.stateCount - oldStateCount);
+
+        int childRootLen = best.rootLen + node.trunk.length;
+        for (N child : node.children) {
+            if (child.trunk.length >= 2)
+                frontier.add(new FrontierNode<>(new FrontierPath<>(child, best.path), childRootLen, getNodeValuation(child, node)));
+        }
+        if (node.trunk.length >= 2)
+            frontier.add(new FrontierNode<>(best.path, best.rootLen, getNodeValuation(node, parent.node)));
+
+        return true;
+    }
+
+    /**
+     * Счетчики и оценки предков разбитого узла до frontierRoot включительно, как при спуске в track
+     */
+    private void updateFrontierAncestors(FrontierPath<N> path, int stateDelta) {
+        while (path.node != frontierRoot) {
+            path = getParentPath(path);
+            path.node.visits++;
+            path.node.stateCount += stateDelta;
+            path.node.update(false);
+        }
+    }
+
+    /**
+     * Путь к родителю узла. После разбиения предка между ним и узлом появляются продолжения его ствола
+     * (последний потомок в trackTrunk) - они добавляются в путь
+     */
+    private FrontierPath<N> getParentPath(FrontierPath<N> path) {
+        FrontierPath<N> parent = path.parent;
+        while (!parent.node.children.contains(path.node)) {
+            parent = new FrontierPath<>(parent.node.children.get(parent.node.children.size() - 1), parent);
+        }
+        path.parent = parent;
+        return parent;
+    }
+
+    public void finishFrontier() {
+        frontierRoot = null;
+        frontierParent = null;
+        frontier = null;
+    }
+
+    private void updateTree(N node) {
+        if (node.children == null)
+            return;
+
+        int stateCount = node.trunk.length;
+        for (N child : node.children) {
+            updateTree(child);
+            stateCount += child.stateCount;
+        }
+        node.stateCount = stateCount;
+        node.update(false);
+    }
+
+    /**
+     * Выкидывает поддеревья с наименьшей оценкой getEvictionValuation, пока в дереве больше stateLimit состояний.
+     * У каждого узла остается хотя бы один потомок
+     * @return сколько состояний выкинуто
+     */
+    public int evict(N root, int stateLimit) {
+        List<Eviction<N>> candidates = new ArrayList<>();
+        collectEvictions(new Eviction<>(root, null, getEvictionValuation(root, null, 0, 0)), 0, candidates);
+        Collections.sort(candidates);
+
+        int evicted = 0;
+        for (Eviction<N> eviction : candidates) {
+            if (root.stateCount - evicted <= stateLimit)
+                break;
+
+            if (eviction.isEvicted() || eviction.parent.node.children.size() < 2)
+                continue;
+
+            eviction.parent.node.children.remove(eviction.node);
+            eviction.evicted = true;
+            evicted += eviction.node.stateCount;
+            onEvicted(eviction.node);
+        }
+        updateTree(root);
+
+        if (frontier != null) {
+            frontier.clear();
+            N parent = root == frontierRoot ? frontierParent : null;
+            addToFrontier(new FrontierPath<>(root, parent == null ? null : new FrontierPath<>(parent, null)), 0);
+        }
+
+        return evicted;
+    }
+
+    private void collectEvictions(Eviction<N> nodeEviction, int rootLen, List<Eviction<N>> candidates) {
+        N node = nodeEviction.node;
+        if (node.children == null)
+            return;
+
+        int childRootLen = rootLen + node.trunk.length;
+        for (N child : node.children) {
+            Eviction<N> eviction = new Eviction<>(child, nodeEviction, getEvictionValuation(child, node, nodeEviction.valuation, childRootLen));
+            if (isEvictable(child, node))
+                candidates.add(eviction);
+
+            collectEvictions(eviction, childRootLen, candidates);
+        }
+    }
+
+    /**
+     * Можно ли выкинуть поддерево node отдельно от остальных потомков parent
+     */
+    protected boolean isEvictable(N node, N parent) {
+        return true;
+    }
+
+    /**
+     * Вызывается для корня выкинутого поддерева (уже отцепленного от родителя)
+     */
+    protected void onEvicted(N node) {
+    }
+
     protected abstract int selectTrunkPoint(N node);
     protected abstract boolean isTrunkTurn(N node);
     protected abstract N[] buildTrunkChildren(N node, T start, int rootLen);
     protected abstract N buildNormalNode(N parent, T start, int trunkPoint);
     protected abstract double getNodeValuation(N node, N parent);
 
-    public abstract static class Node<T, N extends Node> {
+    /**
+     * Оценка поддерева для выкидывания, в отличие от getNodeValuation сравнимая между узлами с разными родителями
+     * @param parentValuation оценка parent (для корня выкидывания parent == null)
+     * @param rootLen с какого тика от корня выкидывания начинается node
+     */
+    protected abstract double getEvictionValuation(N node, N parent, double parentValuation, int rootLen);
+
+    public abstract static class Node<T, N extends Node<T, N>> {
         protected ArrayView<T> trunk;
         protected List<N> children;
         protected int stateCount;
+        //сколько раз спуск проходил через узел
+        protected int visits;
 
         public abstract void update(boolean updateTrunk);
     }
 
+    /**
+     * Узел очереди вместе с цепочкой предков до frontierRoot
+     */
+    private static class FrontierPath<N> {
+        private final N node;
+        private FrontierPath<N> parent;
+
+        private FrontierPath(N node, FrontierPath<N> parent) {
+            this.node = node;
+            this.parent = parent;
+        }
+    }
+
+    private static class FrontierNode<N> implements Comparable<FrontierNode<N>> {
+        private final FrontierPath<N> path;
+        private final int rootLen;
+        private final double valuation;
+
+        private FrontierNode(FrontierPath<N> path, int rootLen, double valuation) {
+            this.path = path;
+            this.rootLen = rootLen;
+            this.valuation = valuation;
+        }
+
+        @Override
+        public int compareTo(FrontierNode<N> other) {
+            if (valuation != other.valuation)
+                return Double.compare(other.valuation, valuation);
+
+            return Integer.compare(rootLen, other.rootLen);
+        }
+    }
+
+    private static class Eviction<N extends Node<?, N>> implements Comparable<Eviction<N>> {
+        private final N node;
+        private final Eviction<N> parent;
+        private final double valuation;
+        private boolean evicted;
+
+        private Eviction(N node, Eviction<N> parent, double valuation) {
+            this.node = node;
+            this.parent = parent;
+            this.valuation = valuation;
+        }
+
+        private boolean isEvicted() {
+            for (Eviction<N> eviction = this; eviction != null; eviction = eviction.parent) {
+                if (eviction.evicted)
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int compareTo(Eviction<N> other) {
+            if (valuation != other.valuation)
+                return Double.compare(valuation, other.valuation);
+
+            return Integer.compare(other.node.stateCount, node.stateCount);
+        }
+    }
+
     public static class ArrayView<T> {
         private final T[] array;
         private final int start;
@@ -15,12 +15,25 @@ public class UnitState {
         this.Va = state.Va;
     }
 
+    public void set(UnitState state) {
+        this.x = state.x;
+        this.y = state.y;
+        this.ax = state.ax;
+        this.ay = state.ay;
+        this.Vx = state.Vx;
+        this.Vy = state.Vy;
+        this.Va = state.Va;
+    }
+
     public UnitState(Unit unit) {
+        set(unit);
+    }
+
+    public void set(Unit unit) {
         this.x = unit.getX();
         this.y = unit.getY();
-        Util.Vector2 angle = new Util.Vector2(unit.getAngle());
-        this.ax = angle.x;
-        this.ay = angle.y;
+        this.ax = Math.cos(unit.getAngle());
+        this.ay = Math.sin(unit.getAngle());
         this.Vx = unit.getSpeedX()*CarEngine.SUB_STEPS_INV;
         this.Vy = unit.getSpeedY()*CarEngine.SUB_STEPS_INV;
         this.Va = unit.getAngularSpeed()*CarEngine.SUB_STEPS_INV;
@@ -51,7 +64,11 @@ public class UnitState {
         }
 
         public CarState(Car car, double Vaw, Game game) {
-            super(car);
+            set(car, Vaw, game);
+        }
+
+        public void set(Car car, double Vaw, Game game) {
+            super.set(car);
             this.enginePower = car.getEnginePower();
             this.wheelTurn = car.getWheelTurn();
             this.Va -= Vaw;
@@ -61,12 +78,28 @@ public class UnitState {
             this.durability = (float)car.getDurability();
             this.lastNitroUseTickPass = (short)(game.getUseNitroCooldownTicks() - car.getRemainingNitroCooldownTicks());
             this.remainingOiledTicks = (short)car.getRemainingOiledTicks();
+            this.nitroChargeCountUsed = 0;
+            this.collision = false;
         }
 
         public CarState copy() {
             return new CarState(this);
         }
 
+        public void set(CarState state) {
+            super.set(state);
+            this.enginePower = state.enginePower;
+            this.wheelTurn = state.wheelTurn;
+            this.nitroChargeCount = state.nitroChargeCount;
+            this.nitroChargeCountUsed = state.nitroChargeCountUsed;
+            this.oilCanisterCount = state.oilCanisterCount;
+            this.projectileCount = state.projectileCount;
+            this.durability = state.durability;
+            this.lastNitroUseTickPass = state.lastNitroUseTickPass;
+            this.remainingOiledTicks = state.remainingOiledTicks;
+            this.collision = state.collision;
+        }
+
 
         public boolean nearEquals(CarState other, double epsilon) {
             boolean result = Math.abs(this.x - other.x) < epsilon &&
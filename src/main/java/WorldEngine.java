@@ -16,11 +16,24 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
     private final E[] bestTeammateTrack;
 
     private boolean resolveBorderCollisions;
+    private boolean adaptiveSubSteps;
     private final K[] carEngine;
     private E state;
 
+    //предел скорости за подшаг для грубых шагов
+    private static final double COARSE_MAX_SPEED2 = 2.0 * 2.0;
+    //расстояния по осям, ближе которых снаряд проверяется на столкновение с машиной
+    private static final double TIRE_CHECK_DIST = 200;
+    private static final double WASHER_CHECK_DIST = 145;
+    //запас на разгон машины за тик
+    private static final double NEAR_MARGIN = 10;
+    //пары снаряд-машина (индекс i * carCount + c), которые за тик могут сблизиться
+    private boolean[] nearProjectiles = new boolean[0];
+
     private final Collider.BoxBox carCarCollider;
     private final Collider.CircleBox carTireCollider, carWasherCollider;
+    // результат последнего столкновения, движок работает в одном потоке
+    private final Collider.Collision collision = new Collider.Collision();
 
     public WorldEngine(K[] carEngine, GameData data, OilSlick[] oilSlicks, E[] bestTeammateTrack) {
         this.bestTeammateTrack = bestTeammateTrack;
@@ -51,6 +64,21 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
         this.resolveBorderCollisions = resolveBorderCollisions;
     }
 
+    public boolean isResolveBorderCollisions() {
+        return resolveBorderCollisions;
+    }
+
+    /**
+     * Тики вдали от бортов и снарядов на малой скорости считаются за CarEngine.COARSE_SUB_STEPS грубых шагов
+     */
+    public void setAdaptiveSubSteps(boolean adaptiveSubSteps) {
+        this.adaptiveSubSteps = adaptiveSubSteps;
+    }
+
+    public boolean isAdaptiveSubSteps() {
+        return adaptiveSubSteps;
+    }
+
     public E getState() {
         return state;
     }
@@ -75,63 +103,189 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
             cEngine.perStepPre();
         }
 
+        boolean anyNear = markNearProjectiles();
+        if (adaptiveSubSteps && !anyNear && isCoarseStepSafe()) {
+            for (K cEngine : this.carEngine) {
+                cEngine.prepareCoarseSubSteps();
+            }
+            for (int t = 0; t < CarEngine.COARSE_SUB_STEPS; t++) {
+                for (K cEngine : this.carEngine) {
+                    cEngine.coarseSubStep();
+                }
+            }
+        } else {
+            subSteps(anyNear);
+        }
+
+        afterSubSteps();
+    }
+
+    /**
+     * Снаряды на траекториях далеко от машин грубым шагам не мешают, остальные - считаются по подшагам
+     */
+    private boolean isCoarseStepSafe() {
+        for (ProjectileState pState : state.projectileStates) {
+            if (pState != null && pState.track == null)
+                return false;
+        }
+
+        for (K cEngine : this.carEngine) {
+            T carState = cEngine.getState();
+            if ((carState.Vx * carState.Vx + carState.Vy * carState.Vy) > COARSE_MAX_SPEED2)
+                return false;
+
+            //за тик машина проходит меньше подсектора, поэтому хватает начала, середины и конца пути
+            double dx = carState.Vx * CarEngine.SUB_STEPS;
+            double dy = carState.Vy * CarEngine.SUB_STEPS;
+            if (!borders.isClear(carState.x, carState.y) || !borders.isClear(carState.x + 0.5 * dx, carState.y + 0.5 * dy) || !borders.isClear(carState.x + dx, carState.y + dy))
+                return false;
+        }
+        return true;
+    }
+
+    private void subSteps(boolean anyNear) {
+        state.ownProjectiles();
+        int carCount = carEngine.length;
         for (int t = 0; t < CarEngine.SUB_STEPS; t++) {
+            int step = state.projectileStep + t + 1;
             for (int i = 0; i < state.projectileStates.length; i++) {
                 ProjectileState pState = state.projectileStates[i];
                 if (pState != null) {
+                    //снаряд на заранее посчитанной траектории двигать не нужно
+                    if (pState.track != null)
+                        continue;
+
                     pState.x += pState.Vx;
                     pState.y += pState.Vy;
 
                     if (i < state.tireCount) {
                         if (borders.collideCircle(pState)) {
-                            if ((pState.Vx * pState.Vx + pState.Vy * pState.Vy) < minTireSpeed2) {
-                                state.projectileStates[i] = null;
-                                break;
-                            }
+                            if ((pState.Vx * pState.Vx + pState.Vy * pState.Vy) < minTireSpeed2)
+                                state.setProjectileState(i, null);
                         }
                     }
                 }
             }
 
-            for (K cEngine : this.carEngine) {
+            for (int c = 0; c < carCount; c++) {
+                K cEngine = carEngine[c];
                 cEngine.subStep();
                 T carState = cEngine.getState();
 
-                if (borders.collideBox(carState, cEngine.Vaw, cEngine.Im, cEngine.Iam, resolveBorderCollisions))
+                if (borders.collideBox(carState, cEngine.Vaw, cEngine.Im, cEngine.Iam, resolveBorderCollisions, collision))
                     carState.collision = true;
 
+                if (!anyNear)
+                    continue;
+
                 for (int i = 0; i < state.projectileStates.length; i++) {
                     ProjectileState pState = state.projectileStates[i];
-                    if (pState != null) {
-                        if (i < state.tireCount) {
-                            if (Math.abs(pState.x - carState.x) > 200 || Math.abs(pState.y - carState.y) > 200)
+                    if (pState != null && nearProjectiles[i * carCount + c]) {
+                        double checkDist = i < state.tireCount ? TIRE_CHECK_DIST : WASHER_CHECK_DIST;
+                        if (pState.track != null) {
+                            if (step >= pState.track.end)
+                                continue;
+                            if (Math.abs(pState.track.getX(step) - carState.x) > checkDist || Math.abs(pState.track.getY(step) - carState.y) > checkDist)
                                 continue;
 
+                            //рядом с машиной снаряд сходит с траектории и дальше считается по шагам
+                            pState = pState.track.at(step);
+                            state.setProjectileState(i, pState);
+                        } else if (Math.abs(pState.x - carState.x) > checkDist || Math.abs(pState.y - carState.y) > checkDist) {
+                            continue;
+                        }
+
+                        if (i < state.tireCount) {
+
                             if (pState.carId == cEngine.carId && (pState.Vx * pState.Vx + pState.Vy * pState.Vy) > 35.9)
                                 continue;
 
                             collideCarTire(cEngine, carState, pState);
 
                             if ((pState.Vx * pState.Vx + pState.Vy * pState.Vy) < minTireSpeed2) {
-                                state.projectileStates[i] = null;
+                                state.setProjectileState(i, null);
                             }
                         } else {
-                            if (Math.abs(pState.x - carState.x) > 145 || Math.abs(pState.y - carState.y) > 145)
-                                continue;
-
                             if (pState.carId == cEngine.carId)
                                 continue;
 
                             if (collideCarWasher(cEngine, carState, pState)) {
-                                state.projectileStates[i] = null;
+                                state.setProjectileState(i, null);
                             }
                         }
                     }
                 }
             }
         }
+    }
+
+    /**
+     * Шина в конце траектории исчезает, за горизонтом траектории снаряд дальше считается по шагам
+     */
+    private void updateTrackedProjectiles(int step) {
+        for (int i = 0; i < state.projectileStates.length; i++) {
+            ProjectileState pState = state.projectileStates[i];
+            if (pState == null || pState.track == null)
+                continue;
+
+            if (step >= pState.track.end) {
+                state.setProjectileState(i, null);
+            } else if (step >= pState.track.length) {
+                state.setProjectileState(i, pState.track.at(step));
+            }
+        }
+    }
+
+    /**
+     * Широкая фаза: снаряд и машина за тик смещаются не дальше своей скорости на SUB_STEPS подшагов,
+     * пары, которые за это время не сблизятся до расстояния проверки, в подшагах не проверяются
+     */
+    private boolean markNearProjectiles() {
+        int carCount = carEngine.length;
+        int size = state.projectileStates.length * carCount;
+        if (nearProjectiles.length < size)
+            nearProjectiles = new boolean[size];
+
+        double maxCarReach = 0;
+        for (K cEngine : this.carEngine) {
+            T carState = cEngine.getState();
+            maxCarReach = Math.max(maxCarReach, Math.sqrt(carState.Vx * carState.Vx + carState.Vy * carState.Vy) * CarEngine.SUB_STEPS + NEAR_MARGIN);
+        }
+
+        boolean anyNear = false;
+        for (int i = 0; i < state.projectileStates.length; i++) {
+            ProjectileState pState = state.projectileStates[i];
+            if (pState == null)
+                continue;
+
+            double px = pState.x, py = pState.y;
+            double reach;
+            if (pState.track != null) {
+                px = pState.track.getX(state.projectileStep);
+                py = pState.track.getY(state.projectileStep);
+                reach = pState.track.maxSpeed * CarEngine.SUB_STEPS;
+            } else {
+                reach = Math.sqrt(pState.Vx * pState.Vx + pState.Vy * pState.Vy) * CarEngine.SUB_STEPS;
+            }
+            if (i < state.tireCount) {
+                //шину может разогнать другая машина
+                reach += TIRE_CHECK_DIST + 2 * maxCarReach;
+            } else {
+                reach += WASHER_CHECK_DIST;
+            }
 
+            for (int c = 0; c < carCount; c++) {
+                T carState = carEngine[c].getState();
+                double carReach = reach + Math.sqrt(carState.Vx * carState.Vx + carState.Vy * carState.Vy) * CarEngine.SUB_STEPS + NEAR_MARGIN;
+                boolean near = Math.abs(px - carState.x) <= carReach && Math.abs(py - carState.y) <= carReach;
+                nearProjectiles[i * carCount + c] = near;
+                anyNear |= near;
+            }
+        }
+        return anyNear;
+    }
 
+    private void afterSubSteps() {
         E tState = null;
 
         state.teammateCollisionV2 = -1;
@@ -153,19 +307,12 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
             cEngine.perStepPost();
             T carState = cEngine.getState();
 
-            int bonusIndex = borders.checkBonusCollision(carState, state.bonuses1, state.bonuses2);
+            int bonusIndex = borders.checkBonusCollision(carState, state.bonuses);
             if (bonusIndex >= 0) {
-                if (bonusIndex < 64) {
-                    if (tState != null && (tState.bonuses1 & (1L << bonusIndex)) == 0)
-                        continue;
-
-                    state.bonuses1 &= ~(1L << bonusIndex);
-                } else {
-                    if (tState != null && (tState.bonuses2 & (1L << (bonusIndex - 64))) == 0)
-                        continue;
+                if (tState != null && !tState.hasBonus(bonusIndex))
+                    continue;
 
-                    state.bonuses2 &= ~(1L << (bonusIndex - 64));
-                }
+                state.removeBonus(bonusIndex);
 
                 Bonus bonus = bonuses[bonusIndex];
                 if (BonusType.NITRO_BOOST.equals(bonus.getType())) {
@@ -206,11 +353,12 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
         }
 
         state.tick++;
+        state.projectileStep += CarEngine.SUB_STEPS;
+        updateTrackedProjectiles(state.projectileStep);
     }
 
     private boolean collideCarWasher(K cEngine, T carState, ProjectileState pState) {
-        Collider.Collision collision = carWasherCollider.checkBoxCentred(pState.x - carState.x, pState.y - carState.y, carState.ax, carState.ay);
-        if (collision != null) {
+        if (carWasherCollider.checkBoxCentred(pState.x - carState.x, pState.y - carState.y, carState.ax, carState.ay, collision)) {
             //todo impulse
 
             carState.durability -= washerDamage;
@@ -223,8 +371,7 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
     }
 
     private void collideCarTire(K cEngine, T carState, ProjectileState pState) {
-        Collider.Collision collision = carTireCollider.checkBoxCentred(pState.x - carState.x, pState.y - carState.y, carState.ax, carState.ay);
-        if (collision != null) {
+        if (carTireCollider.checkBoxCentred(pState.x - carState.x, pState.y - carState.y, carState.ax, carState.ay, collision)) {
             double carToCX = collision.x;
             double carToCY = collision.y;
 
@@ -290,21 +437,24 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
     public static class State<K extends UnitState.CarState> {
         private final Object[] carState;
         public short score, tick;
-        public long bonuses1, bonuses2;
+        //битовая маска оставшихся бонусов. Массив общий у копий состояния, при подборе бонуса заменяется новым
+        public long[] bonuses;
         public byte tireCount;
         public ProjectileState[] projectileStates;
+        //массив снарядов общий с копиями состояния, перед изменением его нужно скопировать (ownProjectiles)
+        private boolean projectilesShared;
+        //подшаг на траекториях снарядов, при сдвиге дерева на следующий ход не меняется
+        public int projectileStep;
         public double teammateCollisionV2 = -1;
 
         public State(K[] carState, GameData data, Projectile[] projectilesArrays) {
             this.carState = carState;
             this.score = (short) data.world.getMyPlayer().getScore();
 
-            if (data.bonuses.length < 64) {
-                bonuses1 = -1L >>> (64 - data.bonuses.length);
-            } else {
-                bonuses1 = -1L;
-                bonuses2 = -1L >>> (128 - data.bonuses.length);
-            }
+            bonuses = new long[(data.bonuses.length + 63) >>> 6];
+            Arrays.fill(bonuses, -1L);
+            if ((data.bonuses.length & 63) != 0)
+                bonuses[bonuses.length - 1] = -1L >>> (64 - (data.bonuses.length & 63));
 
             if (projectilesArrays == null)
                 projectilesArrays = new Projectile[0];
@@ -329,7 +479,7 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
                 Projectile projectle = projectiles.get(i);
                 if (ProjectileType.TIRE.equals(projectle.getType()))
                     this.tireCount++;
-                projectileStates[i] = new ProjectileState(projectle);
+                projectileStates[i] = data.getProjectileTrack(projectle).getStart();
             }
         }
 
@@ -337,6 +487,10 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
             return (K) carState[index];
         }
 
+        public int getCarCount() {
+            return carState.length;
+        }
+
         public State(State<K> state) {
             this.carState = new Object[state.carState.length];
             for (int i = 0; i < state.carState.length; i++) {
@@ -344,20 +498,110 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
             }
             this.teammateCollisionV2 = state.teammateCollisionV2;
             this.score = state.score;
-            this.bonuses1 = state.bonuses1;
-            this.bonuses2 = state.bonuses2;
+            this.bonuses = state.bonuses;
+            this.tick = state.tick;
+            this.tireCount = state.tireCount;
+            this.projectileStep = state.projectileStep;
+            this.projectileStates = state.projectileStates;
+            this.projectilesShared = true;
+            state.projectilesShared = true;
+        }
+
+        public State<K> copy() {
+            return new State<>(this);
+        }
+
+        /**
+         * Копирует состояние на место текущего без создания новых объектов (если это возможно)
+         */
+        public void set(State<K> state) {
+            for (int i = 0; i < this.carState.length; i++) {
+                ((UnitState.CarState) this.carState[i]).set((UnitState.CarState) state.carState[i]);
+            }
+            this.teammateCollisionV2 = state.teammateCollisionV2;
+            this.score = state.score;
+            this.bonuses = state.bonuses;
             this.tick = state.tick;
             this.tireCount = state.tireCount;
-            this.projectileStates = new ProjectileState[state.projectileStates.length];
+            this.projectileStep = state.projectileStep;
+            if (this.projectileStates == state.projectileStates)
+                return;
+
+            if (!hasFreeProjectiles(state.projectileStates)) {
+                //снаряды на траекториях не меняются, такой массив можно просто разделить
+                this.projectileStates = state.projectileStates;
+                this.projectilesShared = true;
+                state.projectilesShared = true;
+                return;
+            }
+
+            if (this.projectilesShared || this.projectileStates.length != state.projectileStates.length) {
+                this.projectileStates = new ProjectileState[state.projectileStates.length];
+                this.projectilesShared = false;
+            }
             for (int i = 0; i < this.projectileStates.length; i++) {
-                if (state.projectileStates[i] != null) {
-                    this.projectileStates[i] = state.projectileStates[i].copy();
+                ProjectileState pState = state.projectileStates[i];
+                ProjectileState thisState = this.projectileStates[i];
+                if (pState == null || pState.track != null) {
+                    this.projectileStates[i] = pState;
+                } else if (thisState == null || thisState.track != null || thisState.carId != pState.carId) {
+                    this.projectileStates[i] = pState.copy();
+                } else {
+                    thisState.set(pState);
                 }
             }
         }
 
-        public State<K> copy() {
-            return new State<>(this);
+        /**
+         * Делает массив снарядов собственным, если он общий с другими состояниями и в нем есть что двигать
+         */
+        public void ownProjectiles() {
+            if (projectilesShared && hasFreeProjectiles(projectileStates))
+                copyProjectiles();
+        }
+
+        void setProjectileState(int index, ProjectileState pState) {
+            if (projectilesShared)
+                copyProjectiles();
+            projectileStates[index] = pState;
+        }
+
+        /**
+         * Снаряд на текущем подшаге (для снаряда на траектории - новый объект с его положением)
+         */
+        public ProjectileState getProjectileState(int index) {
+            ProjectileState pState = projectileStates[index];
+            return pState == null || pState.track == null ? pState : pState.track.at(projectileStep);
+        }
+
+        private void copyProjectiles() {
+            ProjectileState[] states = new ProjectileState[projectileStates.length];
+            for (int i = 0; i < states.length; i++) {
+                ProjectileState pState = projectileStates[i];
+                //снаряды на траекториях не меняются и остаются общими
+                states[i] = pState == null || pState.track != null ? pState : pState.copy();
+            }
+            projectileStates = states;
+            projectilesShared = false;
+        }
+
+        private static boolean hasFreeProjectiles(ProjectileState[] projectileStates) {
+            for (ProjectileState pState : projectileStates) {
+                if (pState != null && pState.track == null)
+                    return true;
+            }
+            return false;
+        }
+
+        public boolean hasBonus(int index) {
+            int word = index >>> 6;
+            return word < bonuses.length && (bonuses[word] & (1L << index)) != 0;
+        }
+
+        public void removeBonus(int index) {
+            long[] newBonuses = bonuses.clone();
+            newBonuses[index >>> 6] &= ~(1L << index);
+            bonuses = newBonuses;
         }
 
         public boolean nearEquals(State<K> other, double epsilon) {
@@ -371,8 +615,8 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
                     return false;
             }
 
-            List<ProjectileState> thisProjectiles = normalizeProjectiles(this.projectileStates);
-            List<ProjectileState> otherProjectiles = normalizeProjectiles(other.projectileStates);
+            List<ProjectileState> thisProjectiles = normalizeProjectiles(this);
+            List<ProjectileState> otherProjectiles = normalizeProjectiles(other);
 
             if (thisProjectiles.size() != otherProjectiles.size())
                 return false;
@@ -385,15 +629,15 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
             }
 
             //todo баг с бонусами (сравнение не корректно - каждый тик массив бонусов обновляется)
-            return Math.abs(this.teammateCollisionV2 - other.teammateCollisionV2) < epsilon && this.tireCount == other.tireCount && this.bonuses1 == other.bonuses1 && this.bonuses2 == other.bonuses2/* && this.score == other.score*/;
+            return Math.abs(this.teammateCollisionV2 - other.teammateCollisionV2) < epsilon && this.tireCount == other.tireCount && Arrays.equals(this.bonuses, other.bonuses)/* && this.score == other.score*/;
         }
 
-        private static List<ProjectileState> normalizeProjectiles(ProjectileState[] projectileStates) {
-            List<ProjectileState> projectiles = new LinkedList<>(Arrays.asList(projectileStates));
-            Iterator<ProjectileState> projectilesIterator = projectiles.iterator();
-            while (projectilesIterator.hasNext()) {
-                if (projectilesIterator.next() == null)
-                    projectilesIterator.remove();
+        private static List<ProjectileState> normalizeProjectiles(State<?> state) {
+            List<ProjectileState> projectiles = new LinkedList<>();
+            for (int i = 0; i < state.projectileStates.length; i++) {
+                ProjectileState pState = state.getProjectileState(i);
+                if (pState != null)
+                    projectiles.add(pState);
             }
             Collections.sort(projectiles, new Comparator<ProjectileState>() {
                 @Override
@@ -411,6 +655,8 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
     public static class ProjectileState {
         public double x, y, Vx, Vy, Va;
         public final long carId;
+        //если не null - снаряд идет по траектории, поля не обновляются и объект не меняется
+        ProjectileTrack track;
 
         public ProjectileState(Projectile projectile) {
             this.x = projectile.getX();
@@ -428,16 +674,125 @@ public class WorldEngine<T extends UnitState.CarState, K extends CarEngine<T>, E
             this.Vy = state.Vy;
             this.Va = state.Va;
             this.carId = state.carId;
+            this.track = state.track;
         }
 
         public ProjectileState copy() {
             return new ProjectileState(this);
         }
 
+        public void set(ProjectileState state) {
+            this.x = state.x;
+            this.y = state.y;
+            this.Vx = state.Vx;
+            this.Vy = state.Vy;
+            this.Va = state.Va;
+        }
+
         public boolean nearEquals(ProjectileState other, double epsilon) {
             return Math.abs(this.x - other.x) < epsilon && Math.abs(this.y - other.y) < epsilon &&
                     Math.abs(this.Vx - other.Vx) < epsilon && Math.abs(this.Vy - other.Vy) < epsilon &&
                     Math.abs(this.Va - other.Va) < epsilon && this.carId == other.carId;
         }
     }
+
+    /**
+     * Траектория снаряда без машин: шайба летит по прямой, шина - по отрезкам между отскоками от бортов.
+     * Считается один раз за ход, положение на любом подшаге берется с нужного отрезка
+     */
+    public static class ProjectileTrack {
+        //длина траектории в тиках, дальше снаряд считается по шагам
+        private static final int TRACK_TICKS = 600;
+
+        final int length;
+        //подшаг, на котором шина останавливается и исчезает
+        final int end;
+        final double maxSpeed;
+        private final int[] segmentStarts;
+        private final ProjectileState[] segments;
+        private final ProjectileState start;
+
+        public ProjectileTrack(Projectile projectile, GameData data) {
+            this.length = TRACK_TICKS * CarEngine.SUB_STEPS;
+
+            ProjectileState pState = new ProjectileState(projectile);
+            List<ProjectileState> segmentList = new ArrayList<>();
+            List<Integer> startList = new ArrayList<>();
+            segmentList.add(pState.copy());
+            startList.add(0);
+
+            int end = Integer.MAX_VALUE;
+            double maxSpeed2 = pState.Vx * pState.Vx + pState.Vy * pState.Vy;
+            if (ProjectileType.TIRE.equals(projectile.getType())) {
+                Game game = data.game;
+                double minTireSpeed = game.getTireDisappearSpeedFactor() * game.getTireInitialSpeed() * CarEngine.SUB_STEPS_INV;
+                ProjectileState segment = segmentList.get(0);
+                int segmentStart = 0;
+                for (int step = 1; step <= length; step++) {
+                    pState.x = segment.x + segment.Vx * (step - segmentStart);
+                    pState.y = segment.y + segment.Vy * (step - segmentStart);
+                    if (data.borders.collideCircle(pState)) {
+                        double speed2 = pState.Vx * pState.Vx + pState.Vy * pState.Vy;
+                        if (speed2 < minTireSpeed * minTireSpeed) {
+                            end = step;
+                            break;
+                        }
+                        maxSpeed2 = Math.max(maxSpeed2, speed2);
+                        segment = pState.copy();
+                        segmentStart = step;
+                        segmentList.add(segment);
+                        startList.add(step);
+                    }
+                }
+            }
+
+            this.end = end;
+            this.maxSpeed = Math.sqrt(maxSpeed2);
+            this.segments = segmentList.toArray(new ProjectileState[segmentList.size()]);
+            this.segmentStarts = new int[startList.size()];
+            for (int i = 0; i < segmentStarts.length; i++) {
+                segmentStarts[i] = startList.get(i);
+            }
+
+            this.start = segments[0].copy();
+            this.start.track = this;
+        }
+
+        /**
+         * Общий для всех состояний объект снаряда, стоящего в начале траектории
+         */
+        public ProjectileState getStart() {
+            return start;
+        }
+
+        private int getSegmentIndex(int step) {
+            int last = segmentStarts.length - 1;
+            if (step >= segmentStarts[last])
+                return last;
+
+            int index = Arrays.binarySearch(segmentStarts, 0, last, step);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        public double getX(int step) {
+            int index = getSegmentIndex(step);
+            return segments[index].x + segments[index].Vx * (step - segmentStarts[index]);
+        }
+
+        public double getY(int step) {
+            int index = getSegmentIndex(step);
+            return segments[index].y + segments[index].Vy * (step - segmentStarts[index]);
+        }
+
+        /**
+         * Снаряд на подшаге step как самостоятельное состояние, дальше его считают по шагам
+         */
+        public ProjectileState at(int step) {
+            int index = getSegmentIndex(step);
+            ProjectileState pState = segments[index].copy();
+            pState.x += pState.Vx * (step - segmentStarts[index]);
+            pState.y += pState.Vy * (step - segmentStarts[index]);
+            return pState;
+        }
+    }
 }
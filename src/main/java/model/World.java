@@ -105,6 +105,20 @@ public class World {
         return Arrays.copyOf(players, players.length);
     }
 
+    /**
+     * @return Возвращает количество игроков. Вместе с {@link #getPlayer(int)} позволяет перебрать их без копирования массива.
+     */
+    public int getPlayerCount() {
+        return players.length;
+    }
+
+    /**
+     * @return Возвращает игрока с индексом {@code index} в том же порядке, что и в {@link #getPlayers()}.
+     */
+    public Player getPlayer(int index) {
+        return players[index];
+    }
+
     /**
      * @return Возвращает список кодемобилей (в случайном порядке).
      * После каждого тика объекты, задающие кодемобили, пересоздаются.
@@ -113,6 +127,20 @@ public class World {
         return Arrays.copyOf(cars, cars.length);
     }
 
+    /**
+     * @return Возвращает количество кодемобилей. Вместе с {@link #getCar(int)} позволяет перебрать их без копирования массива.
+     */
+    public int getCarCount() {
+        return cars.length;
+    }
+
+    /**
+     * @return Возвращает кодемобиль с индексом {@code index} в том же порядке, что и в {@link #getCars()}.
+     */
+    public Car getCar(int index) {
+        return cars[index];
+    }
+
     /**
      * @return Возвращает список снарядов (в случайном порядке).
      * После каждого тика объекты, задающие снаряды, пересоздаются.
@@ -121,6 +149,20 @@ public class World {
         return Arrays.copyOf(projectiles, projectiles.length);
     }
 
+    /**
+     * @return Возвращает количество снарядов. Вместе с {@link #getProjectile(int)} позволяет перебрать их без копирования массива.
+     */
+    public int getProjectileCount() {
+        return projectiles.length;
+    }
+
+    /**
+     * @return Возвращает снаряд с индексом {@code index} в том же порядке, что и в {@link #getProjectiles()}.
+     */
+    public Projectile getProjectile(int index) {
+        return projectiles[index];
+    }
+
     /**
      * @return Возвращает список бонусов (в случайном порядке).
      * После каждого тика объекты, задающие бонусы, пересоздаются.
@@ -129,6 +171,20 @@ public class World {
         return Arrays.copyOf(bonuses, bonuses.length);
     }
 
+    /**
+     * @return Возвращает количество бонусов. Вместе с {@link #getBonus(int)} позволяет перебрать их без копирования массива.
+     */
+    public int getBonusCount() {
+        return bonuses.length;
+    }
+
+    /**
+     * @return Возвращает бонус с индексом {@code index} в том же порядке, что и в {@link #getBonuses()}.
+     */
+    public Bonus getBonus(int index) {
+        return bonuses[index];
+    }
+
     /**
      * @return Возвращает список масляных луж (в случайном порядке).
      * После каждого тика объекты, задающие лужи, пересоздаются.
@@ -137,6 +193,20 @@ public class World {
         return Arrays.copyOf(oilSlicks, oilSlicks.length);
     }
 
+    /**
+     * @return Возвращает количество масляных луж. Вместе с {@link #getOilSlick(int)} позволяет перебрать их без копирования массива.
+     */
+    public int getOilSlickCount() {
+        return oilSlicks.length;
+    }
+
+    /**
+     * @return Возвращает масляную лужу с индексом {@code index} в том же порядке, что и в {@link #getOilSlicks()}.
+     */
+    public OilSlick getOilSlick(int index) {
+        return oilSlicks[index];
+    }
+
     /**
      * @return Возвращает краткое уникальное название трассы.
      */
@@ -156,6 +226,13 @@ public class World {
         return copiedTilesXY;
     }
 
+    /**
+     * @return Возвращает тип тайла с позицией ({@code x}, {@code y}) без копирования всего массива тайлов.
+     */
+    public TileType getTileType(int x, int y) {
+        return tilesXY[x][y];
+    }
+
     /**
      * @return Возвращает массив ключевых тайлов. Каждый тайл задаётся массивом длины 2,
      * где элемент с индексом {@code 0} содержит позицию X, а элемент с индексом {@code 1} --- позицию Y.
@@ -173,6 +250,27 @@ public class World {
         return copiedWaypoints;
     }
 
+    /**
+     * @return Возвращает количество ключевых тайлов.
+     */
+    public int getWaypointCount() {
+        return waypoints.length;
+    }
+
+    /**
+     * @return Возвращает позицию X ключевого тайла с индексом {@code index}.
+     */
+    public int getWaypointX(int index) {
+        return waypoints[index][0];
+    }
+
+    /**
+     * @return Возвращает позицию Y ключевого тайла с индексом {@code index}.
+     */
+    public int getWaypointY(int index) {
+        return waypoints[index][1];
+    }
+
     /**
      * @return Направление кодемобиля в начале игры.
      */